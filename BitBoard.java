@@ -0,0 +1,323 @@
+/**
+ * Packed representation of a 4x4 board. Every cell takes 4 bits holding the
+ * log2 of its tile (0 for an empty cell), so a whole board fits in a single
+ * long. Cell (row, column) lives at bit offset 4 * (4 * row + column), which
+ * puts each row in its own 16 bit chunk with column 0 in the lowest nibble.
+ *
+ * Moves are done a row at a time through precomputed tables that hold the
+ * result of sliding every possible 16 bit row to the left and to the right,
+ * together with the score gained by the merges. Up and down moves transpose
+ * the board and reuse the row tables.
+ */
+public final class BitBoard {
+
+    /* Returned by pack when a grid cannot be represented as a bitboard */
+    public static final long INVALID = -1L;
+
+    /* Largest exponent pack accepts, so any merge still fits in a nibble */
+    public static final int MAX_PACKED_EXPONENT = 14;
+
+    /* Mask of a single row */
+    private static final long ROW_MASK = 0xFFFFL;
+
+    /* Row after sliding left, indexed by the original row */
+    private static final char[] ROW_LEFT = new char[65536];
+
+    /* Row after sliding right, indexed by the original row */
+    private static final char[] ROW_RIGHT = new char[65536];
+
+    /* Score gained by sliding a row; the same for both directions */
+    private static final int[] ROW_SCORE = new int[65536];
+
+    /* Whether a row changes when slid: bit 0 to the left, bit 1 to the right */
+    private static final byte[] ROW_MOVES = new byte[65536];
+
+    static {
+        int[] line = new int[4];
+        for (int row = 0; row < 65536; row++) {
+            // slide towards column 0
+            for (int column = 0; column < 4; column++) {
+                line[column] = (row >>> (4 * column)) & 0xF;
+            }
+            ROW_SCORE[row] = slideLine(line);
+            ROW_LEFT[row] = (char) encodeRow(line);
+
+            // slide towards column 3 by sliding the reversed row
+            for (int column = 0; column < 4; column++) {
+                line[column] = (row >>> (4 * (3 - column))) & 0xF;
+            }
+            slideLine(line);
+            int right = 0;
+            for (int column = 0; column < 4; column++) {
+                right |= line[column] << (4 * (3 - column));
+            }
+            ROW_RIGHT[row] = (char) right;
+            ROW_MOVES[row] = (byte) ((ROW_LEFT[row] != row ? 1 : 0) | (right != row ? 2 : 0));
+        }
+    }
+
+    private BitBoard() {
+    }
+
+    /**
+     * Slides and merges a line of exponents towards index 0. Exponent 15 is
+     * the largest a nibble can hold, so two 15s are left unmerged.
+     *
+     * @param line the exponents of the line, updated in place
+     * @return the score gained by the merges
+     */
+    private static int slideLine(int[] line) {
+        int score = 0;
+        int write = 0;
+        int pending = 0;
+        for (int read = 0; read < line.length; read++) {
+            int exponent = line[read];
+            if (exponent == 0) {
+                continue;
+            }
+            if (pending == exponent && exponent < 15) {
+                line[write++] = exponent + 1;
+                score += 1 << (exponent + 1);
+                pending = 0;
+            }
+            else {
+                if (pending != 0) {
+                    line[write++] = pending;
+                }
+                pending = exponent;
+            }
+        }
+        if (pending != 0) {
+            line[write++] = pending;
+        }
+        while (write < line.length) {
+            line[write++] = 0;
+        }
+        return score;
+    }
+
+    /**
+     * Packs four exponents into a 16 bit row, index 0 in the lowest nibble
+     */
+    private static int encodeRow(int[] line) {
+        int row = 0;
+        for (int column = 0; column < 4; column++) {
+            row |= line[column] << (4 * column);
+        }
+        return row;
+    }
+
+    /**
+     * Packs a 4x4 grid of tile values.
+     *
+     * @param grid the tile values, 0 for an empty cell
+     * @return the packed board, or INVALID if the grid is not 4x4 or holds a
+     * tile that is not a power of two up to 2^MAX_PACKED_EXPONENT
+     */
+    public static long pack(int[][] grid) {
+        if (grid.length != 4) {
+            return INVALID;
+        }
+        long board = 0;
+        for (int row = 0; row < 4; row++) {
+            for (int column = 0; column < 4; column++) {
+                int tileValue = grid[row][column];
+                if (tileValue == 0) {
+                    continue;
+                }
+                int exponent = Integer.numberOfTrailingZeros(tileValue);
+                if (tileValue != (1 << exponent) || exponent == 0
+                        || exponent > MAX_PACKED_EXPONENT) {
+                    return INVALID;
+                }
+                board |= (long) exponent << (4 * (4 * row + column));
+            }
+        }
+        return board;
+    }
+
+    /**
+     * Writes a packed board back into a 4x4 grid of tile values.
+     *
+     * @param board the packed board
+     * @param grid the grid to fill
+     */
+    public static void unpack(long board, int[][] grid) {
+        for (int row = 0; row < 4; row++) {
+            for (int column = 0; column < 4; column++) {
+                grid[row][column] = tileAt(board, row, column);
+            }
+        }
+    }
+
+    /**
+     * @return the tile value at (row, column) of a packed board
+     */
+    public static int tileAt(long board, int row, int column) {
+        int exponent = (int) (board >>> (4 * (4 * row + column))) & 0xF;
+        return exponent == 0 ? 0 : 1 << exponent;
+    }
+
+    /**
+     * Mirrors a packed board along its main diagonal.
+     *
+     * @param board the packed board
+     * @return the board with rows and columns swapped
+     */
+    public static long transpose(long board) {
+        long a1 = board & 0xF0F00F0FF0F00F0FL;
+        long a2 = board & 0x0000F0F00000F0F0L;
+        long a3 = board & 0x0F0F00000F0F0000L;
+        long a = a1 | (a2 << 12) | (a3 >>> 12);
+        long b1 = a & 0xFF00FF0000FF00FFL;
+        long b2 = a & 0x00FF00FF00000000L;
+        long b3 = a & 0x00000000FF00FF00L;
+        return b1 | (b2 >>> 24) | (b3 << 24);
+    }
+
+    /**
+     * Mirrors a packed board top to bottom.
+     *
+     * @param board the packed board
+     * @return the board with its rows in reverse order
+     */
+    public static long flipRows(long board) {
+        return (board << 48) | ((board << 16) & 0x0000FFFF00000000L)
+                | ((board >>> 16) & 0x00000000FFFF0000L) | (board >>> 48);
+    }
+
+    /**
+     * Mirrors a packed board left to right.
+     *
+     * @param board the packed board
+     * @return the board with its columns in reverse order
+     */
+    public static long flipColumns(long board) {
+        long a = ((board & 0x0F0F0F0F0F0F0F0FL) << 4) | ((board >>> 4) & 0x0F0F0F0F0F0F0F0FL);
+        return ((a & 0x00FF00FF00FF00FFL) << 8) | ((a >>> 8) & 0x00FF00FF00FF00FFL);
+    }
+
+    /**
+     * @return the board after a move to the left
+     */
+    public static long moveLeft(long board) {
+        return (long) ROW_LEFT[(int) (board & ROW_MASK)]
+                | (long) ROW_LEFT[(int) ((board >>> 16) & ROW_MASK)] << 16
+                | (long) ROW_LEFT[(int) ((board >>> 32) & ROW_MASK)] << 32
+                | (long) ROW_LEFT[(int) (board >>> 48)] << 48;
+    }
+
+    /**
+     * @return the board after a move to the right
+     */
+    public static long moveRight(long board) {
+        return (long) ROW_RIGHT[(int) (board & ROW_MASK)]
+                | (long) ROW_RIGHT[(int) ((board >>> 16) & ROW_MASK)] << 16
+                | (long) ROW_RIGHT[(int) ((board >>> 32) & ROW_MASK)] << 32
+                | (long) ROW_RIGHT[(int) (board >>> 48)] << 48;
+    }
+
+    /**
+     * @return the board after a move upwards
+     */
+    public static long moveUp(long board) {
+        return transpose(moveLeft(transpose(board)));
+    }
+
+    /**
+     * @return the board after a move downwards
+     */
+    public static long moveDown(long board) {
+        return transpose(moveRight(transpose(board)));
+    }
+
+    /**
+     * Moves a packed board in a direction
+     *
+     * @param board the packed board
+     * @param direction the direction the tiles will move
+     * @return the moved board, equal to board if nothing moved
+     */
+    public static long move(long board, Direction direction) {
+        switch (direction) {
+            case LEFT:
+                return moveLeft(board);
+            case RIGHT:
+                return moveRight(board);
+            case UP:
+                return moveUp(board);
+            default:
+                return moveDown(board);
+        }
+    }
+
+    /**
+     * @return the score gained by moving a packed board in a direction
+     */
+    public static int score(long board, Direction direction) {
+        return direction.vertical ? columnScore(board) : rowScore(board);
+    }
+
+    /**
+     * @return the score gained by a left or right move of the board
+     */
+    public static int rowScore(long board) {
+        return ROW_SCORE[(int) (board & ROW_MASK)]
+                + ROW_SCORE[(int) ((board >>> 16) & ROW_MASK)]
+                + ROW_SCORE[(int) ((board >>> 32) & ROW_MASK)]
+                + ROW_SCORE[(int) (board >>> 48)];
+    }
+
+    /**
+     * @return the score gained by an up or down move of the board
+     */
+    public static int columnScore(long board) {
+        return rowScore(transpose(board));
+    }
+
+    /**
+     * @return a mask with the lowest bit of the nibble of every empty cell
+     * set, so the cell of a set bit is its index / 4
+     */
+    public static long emptyCells(long board) {
+        long occupied = board | (board >>> 1) | (board >>> 2) | (board >>> 3);
+        return ~occupied & 0x1111111111111111L;
+    }
+
+    /**
+     * @return true if the board holds a tile of exponent 15, whose merge
+     * would not fit in a nibble
+     */
+    public static boolean isSaturated(long board) {
+        return (board & (board >>> 1) & (board >>> 2) & (board >>> 3)
+                & 0x1111111111111111L) != 0;
+    }
+
+    /**
+     * Finds every direction that changes the board, looking each row and
+     * column up once instead of making all four moves
+     *
+     * @return a mask with bit direction.ordinal() set for every such direction
+     */
+    public static int legalMoves(long board) {
+        return rowMoves(board) | rowMoves(transpose(board)) << 2;
+    }
+
+    /**
+     * @return bit 0 set if a row of the board slides left, bit 1 if one
+     * slides right
+     */
+    private static int rowMoves(long board) {
+        return ROW_MOVES[(int) (board & ROW_MASK)]
+                | ROW_MOVES[(int) ((board >>> 16) & ROW_MASK)]
+                | ROW_MOVES[(int) ((board >>> 32) & ROW_MASK)]
+                | ROW_MOVES[(int) (board >>> 48)];
+    }
+
+    /**
+     * @return true if no move changes the board
+     */
+    public static boolean isGameOver(long board) {
+        return legalMoves(board) == 0;
+    }
+}
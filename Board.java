@@ -1,4 +1,6 @@
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
 import java.io.*;
 
 public class Board {
@@ -11,6 +13,14 @@ public class Board {
    /* The size of the grid */
    public final int GRID_SIZE;
 
+   /* Boards at least this wide move and look for moves on the common
+      ForkJoinPool, set with -Dgame2048.parallelThreshold */
+   public static final int PARALLEL_THRESHOLD =
+         Integer.getInteger("game2048.parallelThreshold", 256);
+
+   /* Rows or columns per task of a parallel move or search */
+   private static final int LINES_PER_TASK = 32;
+
    /* A reference to the Random object, passed in as a parameter in Board's constructors */
    private final Random random;
 
@@ -20,6 +30,30 @@ public class Board {
    /* Current game score, incremented as the tiles merge */
    private int score;
 
+   /* The empty cells of the grid, kept up to date by every write to it */
+   private EmptyCells emptyCells;
+
+   /* Zobrist hash of the tiles, kept up to date by every write to the grid */
+   private long hash;
+
+   /* What is known about the moves on the current grid: bit
+      direction.ordinal() + 4 is set once the direction has been checked and
+      bit direction.ordinal() if it changes the board. Cleared by every
+      write to the grid */
+   private int moveCache;
+
+   /* moveCache with every direction checked */
+   private static final int ALL_MOVES_KNOWN = 0xF0;
+
+   /* Scratch space for sliding one line, GRID_SIZE cells */
+   private int[] lineBuffer;
+
+   /* Undo/redo history of the moves, null unless enabled */
+   private BoardHistory history;
+
+   /* Observers told about every change, replaced rather than modified */
+   private BoardObserver[] observers = new BoardObserver[0];
+
    /* Direction strings */
    public final String LEFT = "LEFT";
    public final String RIGHT = "RIGHT";
@@ -40,6 +74,7 @@ public class Board {
       this.GRID_SIZE = boardSize;
       this.grid = new int[this.GRID_SIZE][this.GRID_SIZE];
       this.score = 0;
+      this.indexGrid();
 
       // loop through and add two initial tiles to the board randomly
       for (int index = 0; index < this.NUM_START_TILES; index++) {
@@ -75,6 +110,7 @@ public class Board {
             }
         }
        this.GRID_SIZE = boardSize;
+       this.indexGrid();
     }
 
     /**
@@ -92,6 +128,96 @@ public class Board {
                 this.grid[r][c] = inputBoard[r][c];
             }
         }
+        this.indexGrid();
+    }
+
+    /**
+     * Constructs a copy of another board that draws its random tiles from a
+     * different generator
+     *
+     * @param other the board to copy
+     * @param random the random generator for tile values
+     */
+    public Board(Board other, Random random) {
+        this.random = random;
+        this.GRID_SIZE = other.GRID_SIZE;
+        this.grid = new int[this.GRID_SIZE][this.GRID_SIZE];
+        this.emptyCells = new EmptyCells(this.GRID_SIZE * this.GRID_SIZE);
+        this.lineBuffer = new int[this.GRID_SIZE];
+        this.copyFrom(other);
+    }
+
+    /**
+     * Overwrites this board with the tiles and score of another board of the
+     * same size, reusing this board's arrays instead of allocating new ones
+     *
+     * @param other the board to copy
+     */
+    public void copyFrom(Board other) {
+        if (other.GRID_SIZE != this.GRID_SIZE) {
+            throw new IllegalArgumentException("Cannot copy a board of size "
+                    + other.GRID_SIZE + " into a board of size " + this.GRID_SIZE);
+        }
+        for (int row = 0; row < this.GRID_SIZE; row++) {
+            System.arraycopy(other.grid[row], 0, this.grid[row], 0, this.GRID_SIZE);
+        }
+        this.score = other.score;
+        this.emptyCells.copyFrom(other.emptyCells);
+        this.hash = other.hash;
+        this.moveCache = other.moveCache;
+        this.notifyObservers();
+    }
+
+    /**
+     * Builds the set of empty cells and the Zobrist hash from the current
+     * grid. The empty cells are added in cell order, so a grid loaded as a
+     * whole draws the same random tiles however the board got there.
+     */
+    private void indexGrid() {
+        if (this.emptyCells == null) {
+            this.lineBuffer = new int[this.GRID_SIZE];
+            this.emptyCells = new EmptyCells(this.GRID_SIZE * this.GRID_SIZE);
+        }
+        else {
+            this.emptyCells.clear();
+        }
+        this.hash = 0;
+        this.moveCache = 0;
+        for (int row = 0; row < this.GRID_SIZE; row++) {
+            for (int column = 0; column < this.GRID_SIZE; column++) {
+                int cell = row * this.GRID_SIZE + column;
+                if (this.grid[row][column] == 0) {
+                    this.emptyCells.add(cell);
+                }
+                this.hash ^= Zobrist.key(cell, this.grid[row][column]);
+            }
+        }
+    }
+
+    /**
+     * Writes a tile into the grid, keeping the empty cell set and the hash
+     * up to date and forgetting what is known about the moves.
+     * Every change to the grid after construction goes through here.
+     *
+     * @param row The row
+     * @param col The column
+     * @param tileValue the new value of the cell, 0 to clear it
+     */
+    private void setTile(int row, int col, int tileValue) {
+        int oldValue = this.grid[row][col];
+        if (oldValue == tileValue) {
+            return;
+        }
+        int cell = row * this.GRID_SIZE + col;
+        this.grid[row][col] = tileValue;
+        this.hash ^= Zobrist.key(cell, oldValue) ^ Zobrist.key(cell, tileValue);
+        this.moveCache = 0;
+        if (oldValue == 0) {
+            this.emptyCells.remove(cell);
+        }
+        else if (tileValue == 0) {
+            this.emptyCells.add(cell);
+        }
     }
 
     /**
@@ -115,21 +241,32 @@ public class Board {
     /**
      * Print the current board as a 2D grid.
      * You should call this method from PA5Tester
-     * or whenever you debug your code
+     * or whenever you debug your code. The board is printed as it would
+     * be after a move in the given direction, without being changed.
      *
      * @param String direction the tiles will move
      */
     public void printBoard(String direction) {
-        int [][] new_board;
-
-        new_board = getGrid(); //get a copy of the grid
-
-        this.move(direction); //moving the board 
-
-        this.printBoard();   //printing the board
+        int[] tiles = new int[this.GRID_SIZE * this.GRID_SIZE];
+        Direction parsed = Direction.fromString(direction);
+
+        //work out the move without touching the board; if nothing would
+        //move, print the board as it is
+        if (parsed == null || this.peek(parsed, tiles) < 0) {
+            for (int r = 0; r < this.GRID_SIZE; r++) {
+                System.arraycopy(this.grid[r], 0, tiles, r * this.GRID_SIZE, this.GRID_SIZE);
+            }
+        }
 
-        //pass in the saved 2D array from step 1 to reset the board
-        setGrid(new_board);  
+        //looping through the tiles like printBoard()
+        for (int r = 0; r < this.GRID_SIZE; r += 1){
+            for (int c = 0; c < this.GRID_SIZE; c += 1){
+                if (c % 4 == 0){
+                    System.out.println("");
+                }
+                System.out.printf("%5d", tiles[r * this.GRID_SIZE + c]);
+            }
+        }
     }
 
 
@@ -148,153 +285,121 @@ public class Board {
      * @return true if the movement can be done and false if it cannot
      */
     public boolean canMove(String direction){
-        // utilize helper methods to check if movement in a particular
-        // direction is possible
-
-        if (direction.equals(this.UP)) {
-            return this.canMoveUp();
-        }
-        else if (direction.equals(this.RIGHT)) {
-            return this.canMoveRight();
-        }
-        else if (direction.equals(this.DOWN)) {
-            return this.canMoveDown();
-        }
-        else if (direction.equals(this.LEFT)) {
-            return this.canMoveLeft();
-        }
-        else {
-            return false;
-        }
+        Direction parsed = Direction.fromString(direction);
+        return parsed != null && this.canMove(parsed);
     }
 
     /**
-     * determines if a move upwards is possible
+     * Checks whether moving in a direction would change the board. The
+     * answer is kept until the grid changes, so a move right after canMove
+     * does not look again.
      *
-     * @return true if such a move is possible, false if no such move is
+     * @param direction the direction the tiles will move (if possible)
+     * @return true if the movement can be done and false if it cannot
      */
-    private boolean canMoveUp() {
-        //looping through the 2D array 
-        for (int r = 1; r < grid.length; r+= 1){
-            for (int c = 0; c < grid[r].length; c += 1){
-                int currentTiles = grid[r][c];
-                int nextTiles = grid[r-1][c];
-
-                //checking if the nextTiles is an empty space or not
-                if(currentTiles != 0 && nextTiles == 0){
-                    //if the next tile is an empty space, it can move
-                    return true;
-                }
-
-                //checking whether the tiles are empty or not
-                if(nextTiles > 0 && currentTiles > 0){
-                    //if the tiles match then it could merge 
-                    if(nextTiles == currentTiles ){
-                        return true;
-                    }
-                } 
+    public boolean canMove(Direction direction) {
+        int legal = 1 << direction.ordinal();
+        if ((this.moveCache & legal << 4) == 0) {
+            // 4x4 boards are checked on their packed form, where all four
+            // directions cost about as much as one
+            long packed = this.toBitBoard();
+            if (packed != BitBoard.INVALID) {
+                this.moveCache = ALL_MOVES_KNOWN | BitBoard.legalMoves(packed);
+            }
+            else {
+                this.moveCache |= legal << 4
+                        | (this.canSlideLines(direction.vertical, direction.reverse) ? legal : 0);
             }
         }
-        return false;
+        return (this.moveCache & legal) != 0;
     }
 
-
     /**
-     * determines if a move downwards is possible
+     * Returns every direction that would change the board, worked out in
+     * one pass over the grid unless all four have been checked already, and
+     * kept until the grid changes
      *
-     * @return true if such a move is possible, false if no such move is
+     * @return a mask with bit direction.ordinal() set for every direction
+     * that can be moved in, 0 if the game is over
      */
-    private boolean canMoveDown() {
-        //looping through the 2D array 
-        for (int r = 0; r < grid.length -1; r+= 1){
-            for (int c = 0; c < grid[r].length; c += 1){
-            //making sure row is not out of bound and won't cause an error
-                if(r!= (grid.length -1)){
-                    int currentTiles = grid[r][c];
-                    int nextTiles = grid[r+1][c];
-
-                //checking if the nextTiles is an empty space or not
-                    if(currentTiles != 0 && nextTiles ==0){
-                    //if the next tiles is an empty space, it can move
-                        return true;
-                    }
+    public int getLegalMoves() {
+        if ((this.moveCache & ALL_MOVES_KNOWN) != ALL_MOVES_KNOWN) {
+            this.moveCache = ALL_MOVES_KNOWN | this.findLegalMoves();
+        }
+        return this.moveCache & 0xF;
+    }
 
-                    //checking whether the tiles are empty or not
-                    if(nextTiles > 0 && currentTiles> 0){
-                        //if the tiles match then it could merge 
-                        if(nextTiles == currentTiles ){
-                            return true;
-                        }
-                    }
+    /**
+     * Works out the legal moves, in one pass over the rows unless the board
+     * is large enough to search each direction in parallel
+     */
+    private int findLegalMoves() {
+        long packed = this.toBitBoard();
+        if (packed != BitBoard.INVALID) {
+            return BitBoard.legalMoves(packed);
+        }
+        int size = this.GRID_SIZE;
+        int found = 0;
+        if (size >= PARALLEL_THRESHOLD) {
+            for (Direction direction : Direction.values()) {
+                if (this.canSlideLines(direction.vertical, direction.reverse)) {
+                    found |= 1 << direction.ordinal();
                 }
-            } 
+            }
+            return found;
         }
-        return false;
+        for (int row = 0; row < size && found != 15; row++) {
+            int[] below = row + 1 < size ? this.grid[row + 1] : null;
+            found |= LineKernel.INSTANCE.legalMoves(this.grid[row], below, size);
+        }
+        return found;
     }
 
-
     /**
-     * determines if a move rightward is possible
+     * Checks every row or column for a tile that would slide into an empty
+     * cell or merge with its neighbour when moving towards one edge.
      *
+     * @param vertical true to check the columns, false to check the rows
+     * @param reverse true to check a move towards the last row or column
      * @return true if such a move is possible, false if no such move is
      */
-    private boolean canMoveRight() {
-        //looping through the 2D array 
-       for (int r = 0; r < grid.length; r+= 1){
-            for (int c = 0; c < grid[r].length-1; c += 1){
-                
-            //making sure col is not out of bound and won't an error
-                if(c!= (grid[r].length-1)){
-                    int currentTiles = grid[r][c];
-                    int nextTiles = grid[r][c+1];
-
-                    //checking if the nextTiles is an empty space or not
-                    if(currentTiles != 0 && nextTiles ==0){
-                    //if the next tiles is an empty space, it can move
-                        return true;
-                    }
-                    //checking whether the tiles are empty or not
-                    if(nextTiles > 0 && currentTiles> 0){
-                        //if the tiles match then it could merge 
-                        if(nextTiles == currentTiles ){
-                            return true;
-                        }
-                    }
-                }
-            }   
+    private boolean canSlideLines(boolean vertical, boolean reverse) {
+        int size = this.GRID_SIZE;
+        if (size >= PARALLEL_THRESHOLD) {
+            return ForkJoinPool.commonPool().invoke(new MoveSearch(false, vertical, reverse,
+                    0, size, new AtomicBoolean()));
+        }
+        for (int row = 0; row < size; row++) {
+            if (this.canSlideRow(row, vertical, reverse)) {
+                return true;
+            }
         }
         return false;
     }
 
-
     /**
-     * determines if a move leftwards is possible
+     * Checks one row for a tile that would move towards one edge: along
+     * the row for LEFT and RIGHT, or between the row and the one below it
+     * for UP and DOWN
      *
-     * @return true if such a move is possible, false if no such move is
+     * @param row the row
+     * @param vertical true to check UP or DOWN, false for LEFT or RIGHT
+     * @param reverse true to check a move towards the last row or column
+     * @return true if such a move is possible
      */
-    private boolean canMoveLeft() {
-        //looping through the 2D array 
-        for (int r = 0; r < grid.length; r+= 1){
-            for (int c = 1; c < grid[r].length; c += 1){
-                int currentTiles = grid[r][c];
-                int nextTiles = grid[r][c-1];
-
-                //checking if the nextTiles is an empty space or not
-                if(currentTiles != 0 && nextTiles ==0){
-                    //if the next tiles is an empty space, it can move
-                    return true;
-                }
-
-                //checking whether the tiles are empty or not
-                if(nextTiles > 0 && currentTiles> 0){
-                    //if the tiles match then it could merge 
-                    if(nextTiles == currentTiles ){
-                        return true;
-                    }
-                } 
-            }
+    private boolean canSlideRow(int row, boolean vertical, boolean reverse) {
+        int size = this.GRID_SIZE;
+        int[] tiles = this.grid[row];
+        if (!vertical) {
+            return reverse ? LineKernel.INSTANCE.canSlide(tiles, 1, tiles, 0, size - 1)
+                    : LineKernel.INSTANCE.canSlide(tiles, 0, tiles, 1, size - 1);
         }
-        return false;
+        if (row + 1 == size) {
+            return false;
+        }
+        int[] below = this.grid[row + 1];
+        return reverse ? LineKernel.INSTANCE.canSlide(below, 0, tiles, 0, size)
+                : LineKernel.INSTANCE.canSlide(tiles, 0, below, 0, size);
     }
 
 
@@ -302,311 +407,401 @@ public class Board {
      * The purpose of this method is to move the tiles in the game
      * board by a specified direction passed in as a parameter. If the movement
      * cannot be done, the method returns false. If the movement can be done, it
-     * moves the tiles and returns true. This method relies on the help of four
-     * other helper methods to perform the game play.
+     * moves the tiles and returns true.
      *
      * @param String direction the tiles will move (if possible)
      * @return true if the movement can be done and false if it cannot
      */
     public boolean move(String direction) {
+        Direction parsed = Direction.fromString(direction);
+        return parsed != null && this.move(parsed);
+    }
+
+    /**
+     * Moves the tiles in a direction, merging equal neighbours and adding
+     * the merged tiles to the score.
+     *
+     * @param direction the direction the tiles will move (if possible)
+     * @return true if the movement can be done and false if it cannot
+     */
+    public boolean move(Direction direction) {
+        if (!BoardMetrics.ENABLED) {
+            return this.moveTiles(direction);
+        }
+        long start = System.nanoTime();
+        int emptyBefore = this.emptyCells.size();
+        boolean moved = this.moveTiles(direction);
+        //every merge empties one cell
+        BoardMetrics.INSTANCE.recordMove(moved, this.emptyCells.size() - emptyBefore,
+                System.nanoTime() - start);
+        return moved;
+    }
+
+    /**
+     * Moves the tiles, the body of move
+     */
+    private boolean moveTiles(Direction direction) {
         /* if canMove is false, exit and don't move tiles */
         if (!this.canMove(direction)) return false;
 
-        /* move in relationship to the direction passed in */
-        if (direction.equals(this.UP)) {
-            this.moveUp();
-        }
-        else if (direction.equals(this.RIGHT)) {
-            this.moveRight();
-        }
-        else if (direction.equals(this.DOWN)) {
-            this.moveDown();
-        }
-        else if (direction.equals(this.LEFT)) {
-            this.moveLeft();
+        /* 4x4 boards are moved through the bitboard tables */
+        long packed = this.toBitBoard();
+        if (packed != BitBoard.INVALID) {
+            long moved = BitBoard.move(packed, direction);
+            if (this.history != null) this.history.push(this);
+            this.score += BitBoard.score(packed, direction);
+            this.applyBitBoard(packed, moved);
         }
         else {
-            return false;
+            if (this.history != null) this.history.push(this);
+            this.slideLines(direction.vertical, direction.reverse);
         }
-
+        this.notifyObservers();
         return true;
     }
 
     /**
-     * performs a move upward
+     * Copies the cells that differ between two packed boards into the grid
      *
-     * Precondition: an upward move is possible.
-     * Postcondition: The board is modified to reflect the move
+     * @param before the packed form of the current grid
+     * @param after the packed board to write
      */
-    private void moveUp() {
-        //moving the tiles to an empty space if there is any
-        for(int l = 0; l < grid[0].length; l +=1){
-            //looping through the 2D array
-            for (int r = 1; r < grid.length; r+= 1){
-                for (int c = 0; c < grid[r].length; c += 1){
-                    int currentTiles = grid[r][c];
-                    int nextTiles = grid[r-1][c];
+    private void applyBitBoard(long before, long after) {
+        long changed = before ^ after;
+        while (changed != 0) {
+            int cell = Long.numberOfTrailingZeros(changed) >>> 2;
+            this.setTile(cell >>> 2, cell & 3, BitBoard.tileAt(after, cell >>> 2, cell & 3));
+            changed &= ~(0xFL << (4 * cell));
+        }
+    }
 
-                //checking whether nextTiles is an empty spcace or not
-                    if(currentTiles != 0 && nextTiles == 0){
-                        int temp = 0;
-                    //if nextTiles is an empty spcace, move to that space
-                        temp = grid[r-1][c];
-                        grid[r-1][c] = grid [r][c];
-                        grid[r][c] = temp;
-                
-                    }
-                }
-            }
+    /**
+     * Packs the grid into a bitboard when it is small enough for one
+     *
+     * @return the packed grid, or BitBoard.INVALID if this is not a 4x4 board
+     * or a tile does not fit in the packed form
+     */
+    public long toBitBoard() {
+        if (this.GRID_SIZE != 4) return BitBoard.INVALID;
+        return BitBoard.pack(this.grid);
+    }
+
+    /**
+     * Slides every row or column towards one edge, merging equal neighbours
+     * and adding each merged tile to the score.
+     *
+     * @param vertical true to slide the columns, false to slide the rows
+     * @param reverse true to slide towards the last row or column
+     */
+    private void slideLines(boolean vertical, boolean reverse) {
+        int size = this.GRID_SIZE;
+        if (size >= PARALLEL_THRESHOLD) {
+            SlideTask task = new SlideTask(vertical, reverse, 0, size);
+            ForkJoinPool.commonPool().invoke(task);
+            task.finish();
+            this.moveCache = 0;
+            return;
         }
-        //looping through the 2D array
-        for (int r2 = 1; r2 < grid.length; r2+= 1){
-            for (int c2 = 0; c2 < grid[r2].length; c2 += 1){
-                int currentTiles2 = grid[r2][c2];
-                int nextTiles2 = grid[r2-1][c2];
-                //checking whether nextTiles is an empty spcace or not
-                if (currentTiles2 != 0 && currentTiles2 == nextTiles2){
-                    
-                    //if the tiles match, merge the tiles together
-                    // and set the currentTiles to 0
-                    grid[r2-1][c2] = grid[r2][c2] + grid[r2-1][c2];
-                    grid[r2][c2] = 0;
-                }
+        for (int line = 0; line < size; line++) {
+            if (!vertical && !this.canSlideRow(line, false, reverse)) {
+                //a row that cannot move is left as it is
+                continue;
             }
-        }
-        //moving the tiles to an empty space if there is any
-        for(int l = 0; l < grid[0].length; l +=1){
-            //looping through the 2D array
-            for (int r = 1; r < grid.length; r+= 1){
-                for (int c = 0; c < grid[r].length; c += 1){
-                    int currentTiles = grid[r][c];
-                    int nextTiles = grid[r-1][c];
-
-                //checking whether nextTiles is an empty spcace or not
-                    if(currentTiles != 0 && nextTiles == 0){
-                        int temp = 0;
-                //if nextTiles is an empty spcace, move to that space
-                        temp = grid[r-1][c];
-                        grid[r-1][c] = grid [r][c];
-                        grid[r][c] = temp;
-                
-                    }
-                }
+            this.score += this.slideLine(line, vertical, reverse, this.lineBuffer, 0, 1);
+            for (int position = 0; position < size; position++) {
+                this.setLineTile(line, position, vertical, reverse, this.lineBuffer[position]);
             }
         }
     }
 
-
     /**
-     * performs a move downward
-     * Precondition: a downward move is possible.
-     * Postcondition: The board is modified to reflect the move
+     * Slides one row or column of the grid towards one edge without changing
+     * the grid. The line is compacted in a single sweep: tiles are read from
+     * the edge outwards, holding at most one tile that is still waiting for a
+     * merge partner, and written to the target in order, position 0 being
+     * the cell at the edge.
+     *
+     * @param line the row or column to slide
+     * @param vertical true to slide a column, false to slide a row
+     * @param reverse true to slide towards the last row or column
+     * @param target the array the slid line is written to
+     * @param offset the index in target of position 0
+     * @param stride the distance in target between two positions
+     * @return the score gained by the merges
      */
-    private void moveDown() {
-         //moving the tiles to an empty space if there is any
-        for(int l = 0; l < grid[0].length; l+= 1){
-            //looping through the 2D array
-            for (int r = 0; r < grid.length -1; r+= 1){
-                for (int c = 0; c < grid[r].length; c += 1){
-                //making sure the row is not out of bound and won't an error
-                    if(r!= (grid.length -1)){
-                        int currentTiles = grid[r][c];
-                        int nextTiles = grid[r+1][c];
-
-                    //checking whether nextTiles is an empty spcace or not
-                        if(currentTiles != 0 && nextTiles == 0){
-                            int temp = 0;
-                    //if nextTiles is an empty spcace, move to that space
-                            temp = grid[r+1][c];
-                            grid[r+1][c] = grid [r][c];
-                            grid[r][c] = temp;
-                        }
-                    }
+    private int slideLine(int line, boolean vertical, boolean reverse,
+                          int[] target, int offset, int stride) {
+        int size = this.GRID_SIZE;
+        int gained = 0;
+        int write = offset;
+        int end = offset + size * stride;
+        int pending = 0;
+        for (int read = 0; read < size; read++) {
+            int tileValue = this.getLineTile(line, read, vertical, reverse);
+            if (tileValue == 0) {
+                continue;
+            }
+            if (tileValue == pending) {
+                //merge the waiting tile with this one
+                target[write] = pending * 2;
+                write += stride;
+                gained += pending * 2;
+                pending = 0;
+            }
+            else {
+                if (pending != 0) {
+                    target[write] = pending;
+                    write += stride;
                 }
+                pending = tileValue;
             }
         }
-        //looping through the 2D array
-        for (int r2 = 2; r2 > -1; r2-= 1){
-            for (int c2 = 0; c2 < grid[r2].length; c2 += 1){
-                //making sure the row is not out of bound and won't an error
-                if(r2!= (grid.length -1)){
-                    int currentTiles2 = grid[r2][c2];
-                    int nextTiles2 = grid[r2+1][c2];
+        if (pending != 0) {
+            target[write] = pending;
+            write += stride;
+        }
+        //clear the cells the tiles slid away from
+        for (; write != end; write += stride) {
+            target[write] = 0;
+        }
+        return gained;
+    }
 
-                    //checking whether nextTiles is an empty spcace or not
-                    if (currentTiles2 != 0 && currentTiles2 == nextTiles2){
+    /**
+     * Computes the result of a move without changing the board and without
+     * allocating, so it can be used for lookahead.
+     *
+     * @param direction the direction of the move
+     * @param result an array of at least GRID_SIZE * GRID_SIZE cells that
+     *               receives the tiles after the move in row-major order;
+     *               left unspecified if nothing would move
+     * @return the score the move would gain, or -1 if the move would not
+     * change the board
+     */
+    public int peek(Direction direction, int[] result) {
+        int size = this.GRID_SIZE;
+        if (result.length < size * size) {
+            throw new IllegalArgumentException("result holds " + result.length
+                    + " cells, the board has " + size * size);
+        }
+        if (!this.canMove(direction)) return -1;
+        long packed = this.toBitBoard();
+        if (packed != BitBoard.INVALID) {
+            long moved = BitBoard.move(packed, direction);
+            for (int cell = 0; cell < 16; cell++) {
+                result[cell] = BitBoard.tileAt(moved, cell >>> 2, cell & 3);
+            }
+            return BitBoard.score(packed, direction);
+        }
 
-                    //if the tiles match, merge the tiles together
-                    // and set the currentTiles to 0
-                    grid[r2+1][c2] = grid[r2][c2] + grid[r2+1][c2];
-                    grid[r2][c2] = 0;
-                    }
-               }
-            }
-        }
-        //moving the tiles to an empty space if there is any
-        for(int l = 0; l < grid[0].length; l+= 1){
-            //looping through the 2D array
-            for (int r = 0; r < grid.length -1; r+= 1){
-                for (int c = 0; c < grid[r].length; c += 1){
-            //making sure the row is not out of bound and won't an error
-                    if(r!= (grid.length -1)){
-                        int currentTiles = grid[r][c];
-                        int nextTiles = grid[r+1][c];
-
-                    //checking whether nextTiles is an empty spcace or not
-                        if(currentTiles != 0 && nextTiles == 0){
-                            int temp = 0;
-                    //if nextTiles is an empty spcace, move to that space
-                            temp = grid[r+1][c];
-                            grid[r+1][c] = grid [r][c];
-                            grid[r][c] = temp;
-                        }
-                    }
-                }
+        boolean vertical = direction.vertical;
+        boolean reverse = direction.reverse;
+        //position 0 of each line is the cell at the edge it slides towards
+        int stride = (vertical ? size : 1) * (reverse ? -1 : 1);
+        int gained = 0;
+        for (int line = 0; line < size; line++) {
+            int offset = vertical ? line : line * size;
+            if (reverse) {
+                offset -= (size - 1) * stride;
             }
+            gained += this.slideLine(line, vertical, reverse, result, offset, stride);
         }
+        return gained;
     }
 
-
     /**
-     * performs a move left
-     * Precondition: a left move is possible.
-     * Postcondition: The board is modified to reflect the move
+     * Slides a range of rows or columns of a large board, splitting it in
+     * half until it is small enough for one task. The tasks write their own
+     * lines of the grid directly and keep their score, the change of the hash
+     * and the cells that were filled or emptied to themselves; finish then
+     * adds them to the board in line order, so the empty cell set ends up
+     * exactly as a sequential move would leave it.
      */
-    private void moveLeft() {
-        //moving the tiles to an empty space if there is any
-        for (int l = 0; l < grid[0].length; l += 1){
-            //looping through the 2D array
-            for (int r = 0; r < grid.length; r+= 1){
-                for (int c = 1; c < grid[r].length; c += 1){
-                    int currentTiles = grid[r][c];
-                    int nextTiles = grid[r][c-1];
+    @SuppressWarnings("serial")
+    private final class SlideTask extends RecursiveAction {
+
+        private final boolean vertical;
+        private final boolean reverse;
+        private final int from;
+        private final int to;
+
+        /* The halves, if the range was split */
+        private SlideTask first;
+        private SlideTask second;
+
+        /* Results of a task that slid its lines itself */
+        private int gained;
+        private long hashChange;
+
+        /* Cells that received a tile, and the complement of cells that
+           were emptied, in the order it happened */
+        private int[] changes = new int[16];
+        private int changeCount;
+
+        SlideTask(boolean vertical, boolean reverse, int from, int to) {
+            this.vertical = vertical;
+            this.reverse = reverse;
+            this.from = from;
+            this.to = to;
+        }
 
-                //checking whether nextTiles is an empty spcace or not
-                    if(currentTiles != 0 && nextTiles == 0){
-                        int temp = 0;
-                    //if nextTiles is an empty spcace, move to that space
-                        temp = grid[r][c-1];
-                        grid[r][c-1] = grid [r][c];
-                        grid[r][c] = temp;
-                
+        @Override
+        protected void compute() {
+            if (this.to - this.from > LINES_PER_TASK) {
+                int middle = (this.from + this.to) >>> 1;
+                this.first = new SlideTask(this.vertical, this.reverse, this.from, middle);
+                this.second = new SlideTask(this.vertical, this.reverse, middle, this.to);
+                invokeAll(this.first, this.second);
+                return;
+            }
+            int size = GRID_SIZE;
+            int[] slid = new int[size];
+            for (int line = this.from; line < this.to; line++) {
+                if (!this.vertical && !canSlideRow(line, false, this.reverse)) {
+                    continue;
+                }
+                this.gained += slideLine(line, this.vertical, this.reverse, slid, 0, 1);
+                for (int position = 0; position < size; position++) {
+                    int index = this.reverse ? size - 1 - position : position;
+                    int row = this.vertical ? index : line;
+                    int column = this.vertical ? line : index;
+                    int oldValue = grid[row][column];
+                    int tileValue = slid[position];
+                    if (oldValue == tileValue) {
+                        continue;
+                    }
+                    int cell = row * size + column;
+                    grid[row][column] = tileValue;
+                    this.hashChange ^= Zobrist.key(cell, oldValue) ^ Zobrist.key(cell, tileValue);
+                    if (oldValue == 0) {
+                        this.recordChange(cell);
+                    }
+                    else if (tileValue == 0) {
+                        this.recordChange(~cell);
                     }
                 }
             }
         }
-        //looping through the 2D array
-        for (int r2 = 0; r2 < grid.length; r2+= 1){
-            for (int c2 = 1; c2 < grid[r2].length; c2 += 1){ 
-                int currentTiles2 = grid[r2][c2];
-                int nextTiles2 = grid[r2][c2-1];
 
-                //checking whether nextTiles is an empty spcace or not
-                if (currentTiles2 != 0 && currentTiles2 == nextTiles2){
-
-                    //if the tiles match, merge the tiles together
-                    // and set the currentTiles to 0
-                    grid[r2][c2-1] = grid[r2][c2] + grid[r2][c2-1];
-                    grid[r2][c2] = 0;
-                }
+        private void recordChange(int change) {
+            if (this.changeCount == this.changes.length) {
+                this.changes = Arrays.copyOf(this.changes, this.changeCount * 2);
             }
+            this.changes[this.changeCount++] = change;
         }
-        //moving the tiles to an empty space if there is any
-        for (int l = 0; l < grid[0].length; l += 1){
-            //looping through the 2D array
-            for (int r = 0; r < grid.length; r+= 1){
-                for (int c = 1; c < grid[r].length; c += 1){
-                    int currentTiles = grid[r][c];
-                    int nextTiles = grid[r][c-1];
-
-            //checking whether nextTiles is an empty spcace or not
-                    if(currentTiles != 0 && nextTiles == 0){
-                        int temp = 0;
-                //if nextTiles is an empty spcace, move to that space
-                        temp = grid[r][c-1];
-                        grid[r][c-1] = grid [r][c];
-                        grid[r][c] = temp;
-                
-                    }
+
+        /**
+         * Adds the results to the board, first half first. Runs on the
+         * thread that moves the board, after the task is done.
+         */
+        void finish() {
+            if (this.first != null) {
+                this.first.finish();
+                this.second.finish();
+                return;
+            }
+            score += this.gained;
+            hash ^= this.hashChange;
+            for (int index = 0; index < this.changeCount; index++) {
+                int change = this.changes[index];
+                if (change >= 0) {
+                    emptyCells.remove(change);
+                }
+                else {
+                    emptyCells.add(~change);
                 }
             }
         }
     }
 
-
     /**
-     * performs a move right
-     * Precondition: a right move is possible.
-     * Postcondition: The board is modified to reflect the move
+     * Looks for a move on a range of rows of a large board, splitting it in
+     * half until it is small enough for one task. Every move shows up as a
+     * pair of neighbouring cells, so the rows are scanned in memory order
+     * whatever the direction, and the search stops everywhere as soon as one
+     * task finds a pair.
      */
-    private void moveRight() {
-         //moving the tiles to an empty space if there is any
-        for(int l = 0; l < grid[0].length; l += 1){
-             //looping through the 2D array
-            for (int r = 0; r < grid.length; r+= 1){
-                for (int c = 0; c < grid[r].length-1; c += 1){
-                //making sure the col is not out of bound and won't an error
-                    if(c!= (grid[r].length-1)){
-                    int currentTiles = grid[r][c];
-                    int nextTiles = grid[r][c+1];
+    @SuppressWarnings("serial")
+    private final class MoveSearch extends RecursiveTask<Boolean> {
+
+        /* True to look for a move in any direction */
+        private final boolean any;
+        private final boolean vertical;
+        private final boolean reverse;
+        private final int from;
+        private final int to;
+
+        /* Set once any task finds a move */
+        private final AtomicBoolean found;
+
+        MoveSearch(boolean any, boolean vertical, boolean reverse, int from, int to,
+                   AtomicBoolean found) {
+            this.any = any;
+            this.vertical = vertical;
+            this.reverse = reverse;
+            this.from = from;
+            this.to = to;
+            this.found = found;
+        }
 
-                    //checking whether nextTiles is an empty spcace or not
-                        if(currentTiles != 0 && nextTiles == 0){
-                            int temp = 0;
-                    //if nextTiles is an empty spcace, move to that space
-                            temp = grid[r][c+1];
-                            grid[r][c+1] = grid [r][c];
-                            grid[r][c] = temp;
-                        }
-                    }
-                }
+        @Override
+        protected Boolean compute() {
+            if (this.to - this.from > LINES_PER_TASK) {
+                int middle = (this.from + this.to) >>> 1;
+                MoveSearch first = new MoveSearch(this.any, this.vertical, this.reverse,
+                        this.from, middle, this.found);
+                first.fork();
+                boolean second = new MoveSearch(this.any, this.vertical, this.reverse,
+                        middle, this.to, this.found).compute();
+                return first.join() || second;
             }
-        }
-        //looping through the 2D array
-        for (int r2 = 0; r2 < grid.length; r2+= 1){
-            for (int c2 = 2; c2 >-1; c2 -= 1){  
-                //making sure the col is not out of bound and won't an error
-                if(c2!= (grid[r2].length-1)){
-                    int currentTiles2 = grid[r2][c2];
-                    int nextTiles2 = grid[r2][c2+1];
-
-                    //checking whether nextTiles is an empty spcace or not
-                    if (currentTiles2 != 0 && currentTiles2 == nextTiles2){
-                    
-                    //if the tiles match, merge the tiles together
-                    // and set the currentTiles to 0
-                    grid[r2][c2+1] = grid[r2][c2] + grid[r2][c2+1];
-                    grid[r2][c2] = 0;
-                    }
+            for (int row = this.from; row < this.to; row++) {
+                if (this.found.get()) {
+                    return false;
                 }
-            }
-        }   
-        //moving the tiles to an empty space if there is any
-        for(int l = 0; l < grid[0].length; l += 1){
-            //looping through the 2D array
-            for (int r = 0; r < grid.length; r+= 1){
-                for (int c = 0; c < grid[r].length-1; c += 1){
-                //making sure the col is not out of bound and won't an error
-                    if(c!= (grid[r].length-1)){
-                    int currentTiles = grid[r][c];
-                    int nextTiles = grid[r][c+1];
-
-                    //checking whether nextTiles is an empty spcace or not
-                        if(currentTiles != 0 && nextTiles == 0){
-                            int temp = 0;
-                        //if nextTiles is an empty spcace, move to that space
-                            temp = grid[r][c+1];
-                            grid[r][c+1] = grid [r][c];
-                            grid[r][c] = temp;
-                        }
-                    }
+                if (this.searchRow(row)) {
+                    this.found.set(true);
+                    return true;
                 }
             }
+            return false;
         }
 
+        /**
+         * @return true if a tile of the row can move within the row or
+         * into the row below
+         */
+        private boolean searchRow(int row) {
+            if (this.any) {
+                int[] below = row + 1 < GRID_SIZE ? grid[row + 1] : null;
+                return LineKernel.INSTANCE.hasMove(grid[row], below, GRID_SIZE);
+            }
+            return canSlideRow(row, this.vertical, this.reverse);
+        }
     }
 
+    /**
+     * @return the tile at a position along a row or column, counted from
+     * the edge the line slides towards
+     */
+    private int getLineTile(int line, int position, boolean vertical, boolean reverse) {
+        int index = reverse ? this.GRID_SIZE - 1 - position : position;
+        return vertical ? this.grid[index][line] : this.grid[line][index];
+    }
 
+    /**
+     * sets the tile at a position along a row or column, counted from the
+     * edge the line slides towards
+     */
+    private void setLineTile(int line, int position, boolean vertical, boolean reverse, int tileValue) {
+        int index = reverse ? this.GRID_SIZE - 1 - position : position;
+        if (vertical) {
+            this.setTile(index, line, tileValue);
+        }
+        else {
+            this.setTile(line, index, tileValue);
+        }
+    }
 
     /**
      * saves the current board to a file
@@ -635,21 +830,116 @@ public class Board {
     }
 
     /**
-     * gets the count of empty spaces in a grid
+     * saves the current board to a file in the compact binary format of
+     * BoardArchive
      *
-     * @return int count - the number of empty spaces
+     * @param outputBoard the name of the file that will be created
      */
-    public int getCount() {
-        int count = 0;
-        for (int row = 0; row < this.grid.length; row++) {
-            for (int column = 0; column < this.grid[row].length; column++) {
+    public void saveBinary(String outputBoard) throws IOException {
+        BoardArchive.Writer writer = new BoardArchive.Writer(outputBoard);
+        try {
+            writer.write(this);
+        }
+        finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Writes log2 of every tile (0 for an empty cell) in row-major order
+     *
+     * @param exponents the array to write GRID_SIZE * GRID_SIZE bytes into
+     * @param offset where in the array to start writing
+     * @throws IllegalStateException if a tile is not a power of two above 1
+     */
+    public void getExponents(byte[] exponents, int offset) {
+        if (!this.tryGetExponents(exponents, offset)) {
+            throw new IllegalStateException("A tile is not a power of two above 1");
+        }
+    }
+
+    /**
+     * Writes log2 of every tile like getExponents, unless a tile cannot be
+     * written that way
+     *
+     * @param exponents the array to write GRID_SIZE * GRID_SIZE bytes into
+     * @param offset where in the array to start writing
+     * @return false if a tile is not a power of two above 1, in which case
+     * some of the bytes may have been written
+     */
+    public boolean tryGetExponents(byte[] exponents, int offset) {
+        for (int row = 0; row < this.GRID_SIZE; row++) {
+            for (int column = 0; column < this.GRID_SIZE; column++) {
                 int tileValue = this.grid[row][column];
-                if ( tileValue == 0 ) {
-                    count += 1;
+                int exponent = Integer.numberOfTrailingZeros(tileValue);
+                //a 1 would read back as an empty cell
+                if (tileValue != 0 && (tileValue != (1 << exponent) || exponent == 0)) {
+                    return false;
                 }
+                exponents[offset++] = (byte) (tileValue == 0 ? 0 : exponent);
             }
         }
-        return count;
+        return true;
+    }
+
+    /**
+     * Writes the value of every tile (0 for an empty cell) in row-major order
+     *
+     * @param tiles the array to write GRID_SIZE * GRID_SIZE values into
+     * @param offset where in the array to start writing
+     */
+    public void getTiles(int[] tiles, int offset) {
+        for (int row = 0; row < this.GRID_SIZE; row++) {
+            System.arraycopy(this.grid[row], 0, tiles, offset + row * this.GRID_SIZE,
+                    this.GRID_SIZE);
+        }
+    }
+
+    /**
+     * Replaces the tiles and the score of the board
+     *
+     * @param tiles the value of every tile (0 for an empty cell) in
+     *              row-major order
+     * @param offset where in the array the tiles start
+     * @param newScore the new score
+     */
+    public void setTiles(int[] tiles, int offset, int newScore) {
+        for (int row = 0; row < this.GRID_SIZE; row++) {
+            System.arraycopy(tiles, offset + row * this.GRID_SIZE, this.grid[row], 0,
+                    this.GRID_SIZE);
+        }
+        this.indexGrid();
+        this.score = newScore;
+        this.notifyObservers();
+    }
+
+    /**
+     * Replaces the tiles and the score of the board
+     *
+     * @param exponents log2 of every tile (0 for an empty cell) in row-major
+     *                  order
+     * @param offset where in the array the tiles start
+     * @param newScore the new score
+     */
+    public void setExponents(byte[] exponents, int offset, int newScore) {
+        for (int row = 0; row < this.GRID_SIZE; row++) {
+            for (int column = 0; column < this.GRID_SIZE; column++) {
+                int exponent = exponents[offset++];
+                this.grid[row][column] = exponent == 0 ? 0 : 1 << exponent;
+            }
+        }
+        this.indexGrid();
+        this.score = newScore;
+        this.notifyObservers();
+    }
+
+    /**
+     * gets the count of empty spaces in a grid
+     *
+     * @return int count - the number of empty spaces
+     */
+    public int getCount() {
+        return this.emptyCells.size();
     }
 
     /**
@@ -660,35 +950,156 @@ public class Board {
      * returns without changing the board.
      */
     public void addRandomTile() {
-        int count = this.getCount();
+        this.spawnTile();
+    }
+
+    /**
+     * Adds a random tile like addRandomTile
+     *
+     * @return the cell of the new tile, row * GRID_SIZE + column, or -1 if
+     * there was no empty cell
+     */
+    private int spawnTile() {
+        if (!BoardMetrics.ENABLED) {
+            return this.placeRandomTile();
+        }
+        long start = System.nanoTime();
+        int cell = this.placeRandomTile();
+        BoardMetrics.INSTANCE.recordSpawn(System.nanoTime() - start);
+        return cell;
+    }
+
+    /**
+     * Places the random tile, the body of addRandomTile
+     *
+     * @return the cell of the new tile, or -1
+     */
+    private int placeRandomTile() {
+        int count = this.emptyCells.size();
         if (count == 0) {
             System.out.println("There are no empty spaces!");
-            return;
+            return -1;
         }
 
         int location = this.random.nextInt(count);
         int value = this.random.nextInt(100);
-        int emptySpaces = -1;
-        //iterate through the 2D array
-        for (int row = 0; row < this.grid.length; row++) {
-            for (int column = 0; column < this.grid[row].length; column++) {
-                int tileValue = this.grid[row][column];
-                if (tileValue == 0)
-                    emptySpaces += 1;
-
-                //when the number of the empty space equals the random location,
-                //add either a 2 or 4 to that location
-                if (emptySpaces == location) {
-                    if ( value < this.TWO_PROBABILITY ) {
-                        this.grid[row][column] = 2;
-                        return;
-                    }
-                    else {
-                        this.grid[row][column] = 4;
-                        return;
-                    }
+        //look the empty cell up directly instead of scanning the grid
+        int cell = this.emptyCells.get(location);
+        int tileValue = value < this.TWO_PROBABILITY ? 2 : 4;
+        this.setTile(cell / this.GRID_SIZE, cell % this.GRID_SIZE, tileValue);
+        this.notifyObservers();
+        return cell;
+    }
+
+    /**
+     * Plays a sequence of moves, adding a random tile after every move that
+     * changes the board, exactly as a move followed by addRandomTile would.
+     * Moves that do not change the board are skipped without a new tile.
+     *
+     * The results of every step are written to the arrays the caller passes
+     * in, any of which may be null if not wanted. A 4x4 board without a
+     * history or observers plays the whole sequence on its packed form and
+     * writes the grid back once at the end.
+     *
+     * @param moves direction ordinals, one move per byte
+     * @param offset the index in moves of the first move
+     * @param count the number of moves
+     * @param changed receives for every move whether it changed the board
+     * @param scoreDeltas receives the score gained by every move
+     * @param spawnCells receives the cell of the tile added after every
+     *                   move, row * GRID_SIZE + column, or -1 for none
+     * @return the number of moves that changed the board
+     * @throws IllegalArgumentException if a move is not a direction ordinal
+     * or an array is too short; the board is not changed then
+     */
+    public int moveAll(byte[] moves, int offset, int count, boolean[] changed,
+                       int[] scoreDeltas, int[] spawnCells) {
+        for (int step = 0; step < count; step++) {
+            if (moves[offset + step] < 0 || moves[offset + step] > 3) {
+                throw new IllegalArgumentException("Move " + step + " is "
+                        + moves[offset + step] + ", not a direction");
+            }
+        }
+        if ((changed != null && changed.length < count)
+                || (scoreDeltas != null && scoreDeltas.length < count)
+                || (spawnCells != null && spawnCells.length < count)) {
+            throw new IllegalArgumentException("Result arrays hold fewer than " + count + " moves");
+        }
+
+        int step = 0;
+        int changedCount = 0;
+        long start = this.history == null && this.observers.length == 0
+                && !BoardMetrics.ENABLED ? this.toBitBoard() : BitBoard.INVALID;
+        if (start != BitBoard.INVALID) {
+            long packed = start;
+            //stop before a tile is about to outgrow its nibble
+            for (; step < count && !BitBoard.isSaturated(packed); step++) {
+                Direction direction = Direction.fromOrdinal(moves[offset + step]);
+                long moved = BitBoard.move(packed, direction);
+                if (moved == packed) {
+                    recordStep(step, false, 0, -1, changed, scoreDeltas, spawnCells);
+                    continue;
+                }
+                int gained = BitBoard.score(packed, direction);
+                //pick the empty cells in the same order as placeRandomTile
+                long empty = BitBoard.emptyCells(moved);
+                for (int skip = this.random.nextInt(Long.bitCount(empty)); skip > 0; skip--) {
+                    empty &= empty - 1;
                 }
+                int cell = Long.numberOfTrailingZeros(empty) >>> 2;
+                long exponent = this.random.nextInt(100) < this.TWO_PROBABILITY ? 1 : 2;
+                packed = moved | exponent << (4 * cell);
+                this.score += gained;
+                changedCount++;
+                recordStep(step, true, gained, cell, changed, scoreDeltas, spawnCells);
             }
+            this.applyBitBoard(start, packed);
+        }
+
+        for (; step < count; step++) {
+            int scoreBefore = this.score;
+            boolean moved = this.move(Direction.fromOrdinal(moves[offset + step]));
+            int cell = moved ? this.spawnTile() : -1;
+            if (moved) {
+                changedCount++;
+            }
+            recordStep(step, moved, this.score - scoreBefore, cell,
+                    changed, scoreDeltas, spawnCells);
+        }
+        return changedCount;
+    }
+
+    /**
+     * Plays a sequence of moves written as first letters, such as "LURD",
+     * like moveAll(byte[], int, int, boolean[], int[], int[])
+     *
+     * @param moves the letters of the moves
+     * @param changed receives for every move whether it changed the board
+     * @param scoreDeltas receives the score gained by every move
+     * @param spawnCells receives the cell of the tile added after every move
+     * @return the number of moves that changed the board
+     * @throws IllegalArgumentException if a letter is not a direction or an
+     * array is too short; the board is not changed then
+     */
+    public int moveAll(String moves, boolean[] changed, int[] scoreDeltas, int[] spawnCells) {
+        byte[] ordinals = Direction.parseMoves(moves);
+        return this.moveAll(ordinals, 0, ordinals.length, changed, scoreDeltas, spawnCells);
+    }
+
+    /**
+     * Writes the results of one step of moveAll into the arrays that are
+     * not null
+     */
+    private static void recordStep(int step, boolean moved, int gained, int cell,
+                                   boolean[] changed, int[] scoreDeltas, int[] spawnCells) {
+        if (changed != null) {
+            changed[step] = moved;
+        }
+        if (scoreDeltas != null) {
+            scoreDeltas[step] = gained;
+        }
+        if (spawnCells != null) {
+            spawnCells[step] = cell;
         }
     }
 
@@ -702,8 +1113,49 @@ public class Board {
      * @return true if the game is over, and false if the game isn't over
      */
     public boolean isGameOver() {
-        return (!canMoveLeft() && !canMoveRight() && !canMoveUp()
-                && !canMoveDown());
+        if (!BoardMetrics.ENABLED) {
+            return this.noMovesLeft();
+        }
+        long start = System.nanoTime();
+        boolean over = this.noMovesLeft();
+        BoardMetrics.INSTANCE.recordGameOverCheck(System.nanoTime() - start);
+        return over;
+    }
+
+    /**
+     * Checks every direction, the body of isGameOver
+     */
+    private boolean noMovesLeft() {
+        if ((this.moveCache & 0xF) != 0) {
+            return false;
+        }
+        if ((this.moveCache & ALL_MOVES_KNOWN) == ALL_MOVES_KNOWN
+                || this.toBitBoard() != BitBoard.INVALID) {
+            return this.getLegalMoves() == 0;
+        }
+        //a board with both tiles and empty cells always has a move; a full
+        //one gets one pass over the rows for every direction at once,
+        //stopping at the first pair of equal tiles
+        int size = this.GRID_SIZE;
+        int empty = this.emptyCells.size();
+        boolean over = true;
+        if (empty > 0) {
+            over = empty == size * size;
+        }
+        else if (size >= PARALLEL_THRESHOLD) {
+            over = !ForkJoinPool.commonPool().invoke(new MoveSearch(true, false, false,
+                    0, size, new AtomicBoolean()));
+        }
+        else {
+            for (int row = 0; row < size && over; row++) {
+                int[] below = row + 1 < size ? this.grid[row + 1] : null;
+                over = !LineKernel.INSTANCE.hasMove(this.grid[row], below, size);
+            }
+        }
+        if (over) {
+            this.moveCache = ALL_MOVES_KNOWN;
+        }
+        return over;
     }
 
     /**
@@ -729,9 +1181,10 @@ public class Board {
     public void setGrid(int[][] newGrid) {
         for (int r = 0; r < this.grid.length; r++) {
             for (int c = 0; c < this.grid[r].length; c++) {
-                this.grid[r][c] = newGrid[r][c];
+                this.setTile(r, c, newGrid[r][c]);
             }
         }
+        this.notifyObservers();
     }
 
     /**
@@ -754,6 +1207,147 @@ public class Board {
         return this.score;
     }
 
+    /**
+     * Starts keeping an undo/redo history of the moves, dropping any
+     * history kept so far
+     *
+     * @param capacity the number of states to keep, 0 to stop keeping a
+     *                 history
+     */
+    public void enableHistory(int capacity) {
+        this.history = capacity == 0 ? null : new BoardHistory(this.GRID_SIZE, capacity);
+    }
+
+    /**
+     * Puts the board back into the state before the last move, including
+     * the tile added after it
+     *
+     * @return false if there is no history or nothing to undo
+     */
+    public boolean undo() {
+        return this.history != null && this.history.undo(this);
+    }
+
+    /**
+     * Plays the last undone move again
+     *
+     * @return false if there is no history or nothing to redo
+     */
+    public boolean redo() {
+        return this.history != null && this.history.redo(this);
+    }
+
+    /**
+     * Takes an immutable copy of the size, score and tiles of the board
+     *
+     * @return the snapshot
+     */
+    public BoardSnapshot snapshot() {
+        int[] tiles = new int[this.GRID_SIZE * this.GRID_SIZE];
+        for (int row = 0; row < this.GRID_SIZE; row++) {
+            System.arraycopy(this.grid[row], 0, tiles, row * this.GRID_SIZE, this.GRID_SIZE);
+        }
+        return new BoardSnapshot(this.GRID_SIZE, this.score, tiles);
+    }
+
+    /**
+     * Registers an observer that is told about every move, new tile and
+     * other change to the board
+     *
+     * @param observer the observer to add
+     */
+    public void addObserver(BoardObserver observer) {
+        BoardObserver[] added = Arrays.copyOf(this.observers, this.observers.length + 1);
+        added[this.observers.length] = observer;
+        this.observers = added;
+    }
+
+    /**
+     * Unregisters an observer, doing nothing if it was not registered
+     *
+     * @param observer the observer to remove
+     */
+    public void removeObserver(BoardObserver observer) {
+        List<BoardObserver> remaining = new ArrayList<BoardObserver>(Arrays.asList(this.observers));
+        remaining.remove(observer);
+        this.observers = remaining.toArray(new BoardObserver[0]);
+    }
+
+    /**
+     * Returns the Zobrist hash of the tiles, which is updated with every
+     * change to the grid rather than computed here. Boards with the same
+     * tiles have the same hash whatever their score.
+     *
+     * @return the hash
+     */
+    public long getZobristHash() {
+        return this.hash;
+    }
+
+    /**
+     * Returns the Zobrist hash of the canonical form of the board, which is
+     * the same for all eight rotations and reflections of it. Unlike
+     * getZobristHash it is computed from the whole grid on every call.
+     *
+     * @return the hash of the canonical form
+     */
+    public long getCanonicalHash() {
+        Symmetry symmetry = Symmetry.canonical(this);
+        long canonicalHash = 0;
+        for (int row = 0; row < this.GRID_SIZE; row++) {
+            for (int column = 0; column < this.GRID_SIZE; column++) {
+                int cell = symmetry.targetRow(row, column, this.GRID_SIZE) * this.GRID_SIZE
+                        + symmetry.targetColumn(row, column, this.GRID_SIZE);
+                canonicalHash ^= Zobrist.key(cell, this.grid[row][column]);
+            }
+        }
+        return canonicalHash;
+    }
+
+    /**
+     * Two boards are equal if they have the same size, score and tiles.
+     * The hashes are compared first, so unequal boards are almost always
+     * told apart without looking at the grids.
+     *
+     * @param other the object to compare with
+     * @return true if other is an equal board
+     */
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) {
+            return true;
+        }
+        if (!(other instanceof Board)) {
+            return false;
+        }
+        Board board = (Board) other;
+        if (this.GRID_SIZE != board.GRID_SIZE || this.score != board.score
+                || this.hash != board.hash) {
+            return false;
+        }
+        for (int row = 0; row < this.GRID_SIZE; row++) {
+            if (!Arrays.equals(this.grid[row], board.grid[row])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        long mixed = this.hash ^ this.score * 0x9E3779B97F4A7C15L;
+        return (int) (mixed ^ (mixed >>> 32));
+    }
+
+    /**
+     * Tells every observer that the board changed
+     */
+    private void notifyObservers() {
+        for (BoardObserver observer : this.observers) {
+            observer.boardChanged(this);
+        }
+    }
+
     @Override
     public String toString() {
         StringBuilder outputString = new StringBuilder();
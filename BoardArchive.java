@@ -0,0 +1,312 @@
+import java.util.*;
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+
+/**
+ * Compact binary format for boards, holding any number of boards in one
+ * file. It is much smaller and faster to read than the text format of
+ * Board.saveBoard, which is still supported alongside it.
+ *
+ * A file starts with the byte 0x89, the three bytes "B2K" and a version
+ * byte. The first byte is not a digit, so a text board file, which starts
+ * with the grid size, is never taken for an archive. Every board follows as
+ * a record: its size and score as big-endian ints, an encoding byte and
+ * then log2 of every tile (0 for an empty cell) in row-major order.
+ * Boards whose tiles all fit in 4 bits are stored two cells per byte, the
+ * even cell in the low nibble; other boards use a byte per cell.
+ *
+ * The Reader memory-maps the file and decodes one record at a time into a
+ * reused buffer, so iterating over an archive does not allocate per board.
+ */
+public final class BoardArchive {
+
+    /* The first four bytes of an archive, 0x89 and "B2K" in ASCII */
+    public static final int MAGIC = 0x8942324B;
+
+    /* The current version of the format */
+    public static final byte VERSION = 1;
+
+    /* Encoding of records with 4 bits per cell */
+    private static final byte NIBBLES = 1;
+
+    /* Encoding of records with 8 bits per cell */
+    private static final byte BYTES = 2;
+
+    /* Length of the file header and of a record header */
+    private static final int FILE_HEADER_LENGTH = 5;
+    private static final int RECORD_HEADER_LENGTH = 9;
+
+    /* How much of the file is mapped at a time */
+    private static final int WINDOW_SIZE = 1 << 26;
+
+    private BoardArchive() {
+    }
+
+    /**
+     * Checks whether a file starts like a board archive
+     *
+     * @param inputBoard the name of the file
+     * @return true if the file starts with the archive magic
+     */
+    public static boolean isArchive(String inputBoard) throws IOException {
+        DataInputStream input = new DataInputStream(new FileInputStream(inputBoard));
+        try {
+            return input.readInt() == MAGIC;
+        }
+        catch (EOFException e) {
+            return false;
+        }
+        finally {
+            input.close();
+        }
+    }
+
+    /**
+     * Loads the first board of an archive
+     *
+     * @param random the random generator for tile values
+     * @param inputBoard the name of the file
+     * @return the board
+     */
+    public static Board readBoard(Random random, String inputBoard) throws IOException {
+        Reader reader = new Reader(inputBoard);
+        try {
+            if (!reader.next()) {
+                throw new EOFException(inputBoard + " holds no boards");
+            }
+            return reader.toBoard(random);
+        }
+        finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Appends boards to a new archive file
+     */
+    public static final class Writer implements Closeable {
+
+        private final DataOutputStream output;
+
+        /* Reused buffers for the exponents of a board and its packed form */
+        private byte[] exponents = new byte[0];
+        private byte[] packed = new byte[0];
+
+        /**
+         * Creates the file and writes its header
+         *
+         * @param outputFile the name of the file, replaced if it exists
+         */
+        public Writer(String outputFile) throws IOException {
+            this.output = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(outputFile)));
+            this.output.writeInt(MAGIC);
+            this.output.writeByte(VERSION);
+        }
+
+        /**
+         * Appends a board to the archive
+         *
+         * @param board the board to write
+         */
+        public void write(Board board) throws IOException {
+            int cells = board.GRID_SIZE * board.GRID_SIZE;
+            if (this.exponents.length < cells) {
+                this.exponents = new byte[cells];
+                this.packed = new byte[(cells + 1) / 2];
+            }
+            board.getExponents(this.exponents, 0);
+            int largest = 0;
+            for (int cell = 0; cell < cells; cell++) {
+                largest = Math.max(largest, this.exponents[cell]);
+            }
+
+            this.output.writeInt(board.GRID_SIZE);
+            this.output.writeInt(board.getScore());
+            if (largest < 16) {
+                //two cells per byte
+                Arrays.fill(this.packed, 0, (cells + 1) / 2, (byte) 0);
+                for (int cell = 0; cell < cells; cell++) {
+                    this.packed[cell >>> 1] |= this.exponents[cell] << (4 * (cell & 1));
+                }
+                this.output.writeByte(NIBBLES);
+                this.output.write(this.packed, 0, (cells + 1) / 2);
+            }
+            else {
+                this.output.writeByte(BYTES);
+                this.output.write(this.exponents, 0, cells);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.output.close();
+        }
+    }
+
+    /**
+     * Reads the boards of an archive one after the other
+     */
+    public static final class Reader implements Closeable {
+
+        private final FileChannel channel;
+        private final long fileSize;
+
+        /* The mapped part of the file and the file offset it starts at */
+        private MappedByteBuffer window;
+        private long windowStart;
+
+        /* File offset of the next record */
+        private long position;
+
+        /* The current record, decoded */
+        private int size;
+        private int score;
+        private byte[] exponents = new byte[0];
+
+        /**
+         * Opens an archive and checks its header
+         *
+         * @param inputFile the name of the file
+         */
+        public Reader(String inputFile) throws IOException {
+            this.channel = new RandomAccessFile(inputFile, "r").getChannel();
+            this.fileSize = this.channel.size();
+            try {
+                this.ensure(FILE_HEADER_LENGTH);
+                if (this.window.getInt(0) != MAGIC) {
+                    throw new IOException(inputFile + " is not a board archive");
+                }
+                if (this.window.get(4) != VERSION) {
+                    throw new IOException(inputFile + " has unsupported version "
+                            + this.window.get(4));
+                }
+            }
+            catch (IOException e) {
+                this.channel.close();
+                throw e;
+            }
+            this.position = FILE_HEADER_LENGTH;
+        }
+
+        /**
+         * Makes sure the next length bytes from position are mapped
+         */
+        private void ensure(int length) throws IOException {
+            if (this.position + length > this.fileSize) {
+                throw new EOFException("Board archive is truncated");
+            }
+            if (this.window != null
+                    && this.position + length <= this.windowStart + this.window.capacity()) {
+                return;
+            }
+            long mapped = Math.min(this.fileSize - this.position,
+                    Math.max(length, WINDOW_SIZE));
+            this.window = this.channel.map(FileChannel.MapMode.READ_ONLY,
+                    this.position, mapped);
+            this.windowStart = this.position;
+        }
+
+        /**
+         * Decodes the next board
+         *
+         * @return true if there was a board, false at the end of the archive
+         */
+        public boolean next() throws IOException {
+            if (this.position >= this.fileSize) {
+                return false;
+            }
+            this.ensure(RECORD_HEADER_LENGTH);
+            int index = (int) (this.position - this.windowStart);
+            int newSize = this.window.getInt(index);
+            int newScore = this.window.getInt(index + 4);
+            byte encoding = this.window.get(index + 8);
+            if (newSize < 0 || newSize > 46340) {
+                throw new IOException("Bad board size " + newSize);
+            }
+            int cells = newSize * newSize;
+            int length = encoding == NIBBLES ? (cells + 1) / 2 : cells;
+            if (encoding != NIBBLES && encoding != BYTES) {
+                throw new IOException("Bad board encoding " + encoding);
+            }
+            this.position += RECORD_HEADER_LENGTH;
+            this.ensure(length);
+            index = (int) (this.position - this.windowStart);
+
+            if (this.exponents.length < cells) {
+                this.exponents = new byte[cells];
+            }
+            if (encoding == BYTES) {
+                this.window.get(index, this.exponents, 0, cells);
+            }
+            else {
+                for (int cell = 0; cell < cells; cell++) {
+                    int pair = this.window.get(index + (cell >>> 1));
+                    this.exponents[cell] = (byte) ((pair >>> (4 * (cell & 1))) & 0xF);
+                }
+            }
+            this.position += length;
+            this.size = newSize;
+            this.score = newScore;
+            return true;
+        }
+
+        /**
+         * @return the size of the current board
+         */
+        public int getSize() {
+            return this.size;
+        }
+
+        /**
+         * @return the score of the current board
+         */
+        public int getScore() {
+            return this.score;
+        }
+
+        /**
+         * return the tile value in a particular cell of the current board.
+         *
+         * @param row The row
+         * @param col The column
+         * @return The value of the tile at (row, col)
+         */
+        public int getTileValue(int row, int col) {
+            int exponent = this.exponents[row * this.size + col];
+            return exponent == 0 ? 0 : 1 << exponent;
+        }
+
+        /**
+         * Overwrites a board of the same size with the current board, without
+         * allocating
+         *
+         * @param board the board to fill
+         */
+        public void copyTo(Board board) {
+            if (board.GRID_SIZE != this.size) {
+                throw new IllegalArgumentException("Cannot load a board of size "
+                        + this.size + " into a board of size " + board.GRID_SIZE);
+            }
+            board.setExponents(this.exponents, 0, this.score);
+        }
+
+        /**
+         * Creates a new Board holding the current board
+         *
+         * @param random the random generator for tile values
+         * @return the board
+         */
+        public Board toBoard(Random random) {
+            Board board = new Board(random, new int[this.size][this.size]);
+            this.copyTo(board);
+            return board;
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.channel.close();
+        }
+    }
+}
@@ -0,0 +1,384 @@
+import java.util.*;
+import java.io.*;
+import java.lang.management.*;
+import java.nio.file.*;
+
+/**
+ * Micro benchmarks for the Board hot paths. Every benchmark is run for each
+ * combination of board size and fill density: it is first warmed up so the
+ * JIT compiles it, then timed over a fixed window. The report gives the time
+ * per operation and the bytes allocated per operation by the benchmark
+ * thread, so changes to the engine can be compared run against run.
+ *
+ * Benchmarks that change the board restore it from a prepared copy before
+ * every operation; the "copyFrom" row measures that restore on its own so it
+ * can be subtracted. canMove and isGameOver are restored the same way:
+ * a board keeps what it found out about its moves until the grid changes,
+ * and the prepared copies are never asked, so every restore starts with
+ * nothing known. The "canMoveCached" and "gameOverCached" rows ask boards
+ * that already know the answer.
+ *
+ * This stands in for JMH, which the javac-only build cannot pull in, and
+ * has fewer guarantees. Every benchmark runs through the same
+ * Operation.run call site, which the JIT optimizes for the operations it
+ * has seen. Sharing one JVM would make that site megamorphic by the second
+ * benchmark, and the results would depend on the run order. So by default
+ * each benchmark runs in a fresh JVM of its own, started with the same JVM
+ * options (-f false runs them all in this JVM, for a quick look only).
+ * There is a single fork and no error estimate, so compare runs of
+ * a few repetitions. Bytes per operation come from the thread's allocation
+ * counter. The GC columns count the collections and their time over the
+ * whole JVM during the timed window, which is all that stands in for the
+ * JMH gc profiler. Timings include the loop overhead of a batch, and only
+ * the volatile sink keeps the JIT from dropping unused results.
+ */
+public class BoardBenchmark {
+
+    /* Number of prepared boards each benchmark cycles through */
+    private static final int POOL_SIZE = 64;
+
+    /* Operations run between two reads of the clock */
+    private static final int BATCH = 64;
+
+    /* Every benchmark, in the order they are run */
+    private static final String[] BENCHMARKS = {"copyFrom", "move", "canMove", "isGameOver",
+            "canMoveCached", "gameOverCached", "addRandomTile", "getGrid", "setGrid",
+            "saveBoard", "loadBoard"};
+
+    /* The first line of the report */
+    private static final String HEADER = String.format("%-14s %5s %8s %12s %10s %5s %7s",
+            "Benchmark", "Size", "Density", "ns/op", "B/op", "GCs", "GC ms");
+
+    // Settings, filled in by processArgs
+    private int[] sizes = {4, 8, 16, 64};
+    private double[] densities = {0.25, 0.5, 0.9};
+    private long warmupMillis = 1000;
+    private long measureMillis = 1000;
+    private String filter = null;
+    private boolean fork = true;
+
+    /* Written by every operation so the JIT cannot drop the work */
+    private static volatile long sink;
+
+    /**
+     * A single benchmarked operation
+     */
+    private interface Operation {
+        /**
+         * Runs the operation once
+         *
+         * @param index a counter that the operation can use to pick its input
+         * @return a value that depends on the work done
+         */
+        long run(int index) throws IOException;
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        BoardBenchmark benchmark = new BoardBenchmark();
+        benchmark.processArgs(args);
+        benchmark.runAll();
+    }
+
+    /**
+     * Runs every benchmark for every size and density, each in a JVM of its
+     * own unless forking is turned off
+     */
+    private void runAll() throws IOException, InterruptedException {
+        System.out.println(HEADER);
+        if (!this.fork) {
+            for (int size : this.sizes) {
+                for (double density : this.densities) {
+                    this.runSize(size, density);
+                }
+            }
+            return;
+        }
+        for (String name : BENCHMARKS) {
+            if (this.filter == null || name.equals(this.filter)) {
+                this.runForked(name);
+            }
+        }
+    }
+
+    /**
+     * Runs one benchmark in a new JVM with the same options and class path
+     * as this one, and copies its rows into this report
+     */
+    private void runForked(String name) throws IOException, InterruptedException {
+        List<String> command = new ArrayList<String>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        command.addAll(ManagementFactory.getRuntimeMXBean().getInputArguments());
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(BoardBenchmark.class.getName());
+        StringJoiner sizes = new StringJoiner(",");
+        for (int size : this.sizes) {
+            sizes.add(Integer.toString(size));
+        }
+        StringJoiner densities = new StringJoiner(",");
+        for (double density : this.densities) {
+            densities.add(Double.toString(density));
+        }
+        Collections.addAll(command, "-s", sizes.toString(), "-d", densities.toString(),
+                "-w", Long.toString(this.warmupMillis), "-m", Long.toString(this.measureMillis),
+                "-b", name, "-f", "false");
+
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (!line.equals(HEADER)) {
+                System.out.println(line);
+            }
+        }
+        reader.close();
+        int status = process.waitFor();
+        if (status != 0) {
+            throw new IOException("Benchmark " + name + " failed with exit code " + status);
+        }
+    }
+
+    /**
+     * Runs every benchmark for one size and density
+     */
+    private void runSize(int size, double density) throws IOException {
+        Random random = new Random(size * 31L + (long) (density * 100));
+        Board[] pool = new Board[POOL_SIZE];
+        int[][][] grids = new int[POOL_SIZE][][];
+        for (int index = 0; index < POOL_SIZE; index++) {
+            grids[index] = randomGrid(random, size, density);
+            pool[index] = new Board(new Random(index), grids[index]);
+        }
+        Board work = new Board(pool[0], new Random(1));
+        Board[] cached = new Board[POOL_SIZE];
+        for (int index = 0; index < POOL_SIZE; index++) {
+            cached[index] = new Board(pool[index], new Random(index));
+        }
+
+        File file = File.createTempFile("benchmark", ".board");
+        file.deleteOnExit();
+        String fileName = file.getPath();
+        pool[0].saveBoard(fileName);
+
+        this.run("copyFrom", size, density, index -> {
+            work.copyFrom(pool[index % POOL_SIZE]);
+            return work.getScore();
+        });
+        this.run("move", size, density, index -> {
+            work.copyFrom(pool[index % POOL_SIZE]);
+            return work.move(Direction.fromOrdinal(index & 3)) ? 1 : 0;
+        });
+        this.run("canMove", size, density, index -> {
+            work.copyFrom(pool[index % POOL_SIZE]);
+            return work.canMove(Direction.fromOrdinal(index & 3)) ? 1 : 0;
+        });
+        this.run("isGameOver", size, density, index -> {
+            work.copyFrom(pool[index % POOL_SIZE]);
+            return work.isGameOver() ? 1 : 0;
+        });
+        this.run("canMoveCached", size, density, index ->
+                cached[index % POOL_SIZE].canMove(Direction.fromOrdinal(index & 3)) ? 1 : 0);
+        this.run("gameOverCached", size, density, index ->
+                cached[index % POOL_SIZE].isGameOver() ? 1 : 0);
+        this.run("addRandomTile", size, density, index -> {
+            work.copyFrom(pool[index % POOL_SIZE]);
+            work.addRandomTile();
+            return work.getCount();
+        });
+        this.run("getGrid", size, density, index ->
+                pool[index % POOL_SIZE].getGrid().length);
+        this.run("setGrid", size, density, index -> {
+            work.setGrid(grids[index % POOL_SIZE]);
+            return work.getCount();
+        });
+        this.run("saveBoard", size, density, index -> {
+            pool[index % POOL_SIZE].saveBoard(fileName);
+            return index;
+        });
+        pool[0].saveBoard(fileName);
+        this.run("loadBoard", size, density, index ->
+                new Board(random, fileName).getScore());
+    }
+
+    /**
+     * Fills a grid with random tiles
+     *
+     * @param density the fraction of cells that get a tile
+     */
+    private static int[][] randomGrid(Random random, int size, double density) {
+        int[][] grid = new int[size][size];
+        for (int row = 0; row < size; row++) {
+            for (int column = 0; column < size; column++) {
+                if (random.nextDouble() < density) {
+                    grid[row][column] = 1 << (1 + random.nextInt(10));
+                }
+            }
+        }
+        //keep one cell free so addRandomTile always has somewhere to go
+        grid[size - 1][size - 1] = 0;
+        return grid;
+    }
+
+    /**
+     * Warms up and times one benchmark, then prints its row of the report
+     */
+    private void run(String name, int size, double density, Operation operation)
+            throws IOException {
+        if (this.filter != null && !name.equals(this.filter)) {
+            return;
+        }
+        int index = 0;
+        long warmupEnd = System.nanoTime() + this.warmupMillis * 1000000L;
+        while (System.nanoTime() < warmupEnd) {
+            index = this.runBatch(operation, index);
+        }
+
+        long allocatedBefore = allocatedBytes();
+        long collectionsBefore = collections();
+        long collectionMillisBefore = collectionMillis();
+        long start = System.nanoTime();
+        long end = start + this.measureMillis * 1000000L;
+        long operations = 0;
+        long now;
+        do {
+            index = this.runBatch(operation, index);
+            operations += BATCH;
+            now = System.nanoTime();
+        } while (now < end);
+        long allocated = allocatedBytes() - allocatedBefore;
+        long collections = collections() - collectionsBefore;
+        long collectionMillis = collectionMillis() - collectionMillisBefore;
+
+        System.out.printf("%-14s %5d %8.2f %12.1f %10s %5d %7d%n", name, size, density,
+                (double) (now - start) / operations,
+                allocated < 0 ? "n/a" : String.format("%.1f", (double) allocated / operations),
+                collections, collectionMillis);
+    }
+
+    /**
+     * Runs an operation BATCH times
+     *
+     * @return the counter to continue from
+     */
+    private int runBatch(Operation operation, int index) throws IOException {
+        long result = 0;
+        for (int count = 0; count < BATCH; count++) {
+            result += operation.run(index++);
+        }
+        sink += result;
+        return index;
+    }
+
+    /**
+     * @return the bytes allocated so far by the current thread, or -1 if the
+     * JVM cannot tell
+     */
+    private static long allocatedBytes() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+            if (threads.isThreadAllocatedMemorySupported()) {
+                return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the number of garbage collections so far, over all collectors
+     */
+    private static long collections() {
+        long count = 0;
+        for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, bean.getCollectionCount());
+        }
+        return count;
+    }
+
+    /**
+     * @return the milliseconds spent in garbage collection so far, over all
+     * collectors
+     */
+    private static long collectionMillis() {
+        long millis = 0;
+        for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+            millis += Math.max(0, bean.getCollectionTime());
+        }
+        return millis;
+    }
+
+    /**
+     * @return the comma separated numbers of an argument
+     */
+    private static double[] parseList(String list) {
+        String[] parts = list.split(",");
+        double[] values = new double[parts.length];
+        for (int index = 0; index < parts.length; index++) {
+            values[index] = Double.parseDouble(parts[index]);
+        }
+        return values;
+    }
+
+    // The method used to process the command line arguments
+    private void processArgs(String[] args)
+    {
+        // Arguments must come in pairs
+        if((args.length % 2) != 0)
+        {
+            printUsage();
+            System.exit(-1);
+        }
+
+        try
+        {
+            for(int i = 0; i < args.length; i += 2)
+            {
+                if(args[i].equals("-s"))
+                {
+                    double[] values = parseList(args[i + 1]);
+                    sizes = new int[values.length];
+                    for(int j = 0; j < values.length; j++)
+                        sizes[j] = (int) values[j];
+                }
+                else if(args[i].equals("-d"))
+                    densities = parseList(args[i + 1]);
+                else if(args[i].equals("-w"))
+                    warmupMillis = Long.parseLong(args[i + 1]);
+                else if(args[i].equals("-m"))
+                    measureMillis = Long.parseLong(args[i + 1]);
+                else if(args[i].equals("-b"))
+                    filter = args[i + 1];
+                else if(args[i].equals("-f"))
+                    fork = Boolean.parseBoolean(args[i + 1]);
+                else
+                {   // Incorrect Argument
+                    printUsage();
+                    System.exit(-1);
+                }
+            }
+        }
+        catch (NumberFormatException e)
+        {
+            printUsage();
+            System.exit(-1);
+        }
+    }
+
+    // Print the Usage Message
+    private static void printUsage()
+    {
+        System.out.println("BoardBenchmark");
+        System.out.println("Usage:  BoardBenchmark [-s sizes] [-d densities] "
+                + "[-w millis] [-m millis] [-b benchmark] [-f fork]");
+        System.out.println();
+        System.out.println("  -s [sizes]     -> Comma separated board sizes, "
+                + "default 4,8,16,64");
+        System.out.println("  -d [densities] -> Comma separated fractions of filled "
+                + "cells, default 0.25,0.5,0.9");
+        System.out.println("  -w [millis]    -> Warm up time per benchmark, default 1000");
+        System.out.println("  -m [millis]    -> Measured time per benchmark, default 1000");
+        System.out.println("  -b [benchmark] -> Only run the benchmark with this name");
+        System.out.println("  -f [fork]      -> Run every benchmark in a JVM of its own, "
+                + "default true");
+    }
+}
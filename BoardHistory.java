@@ -0,0 +1,196 @@
+/**
+ * Bounded undo/redo history of a Board. States are kept in a ring buffer
+ * that is allocated once: every slot holds log2 of each tile as a byte plus
+ * the score, a quarter of the memory of an int[][] copy and without any
+ * allocation per move. When the buffer is full the oldest states are
+ * dropped.
+ *
+ * Boards loaded from a file can hold tiles that are not powers of two, such
+ * as 3 or 6. The first time such a board is saved, the ring switches to
+ * keeping every tile as an int and stays that way.
+ *
+ * The slot at the cursor stands for the current state of the board, which
+ * is only written there when the board moves away from it. Slots before the
+ * cursor are the states that can be undone to, slots after it the states
+ * that can be redone.
+ */
+public final class BoardHistory {
+
+    /* Number of states kept by default on small boards */
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    /* Most memory the ring may take by default, in bytes, counting every
+       tile as an int in case the ring has to switch to values */
+    public static final long DEFAULT_BUDGET_BYTES = 32L << 20;
+
+    /* Number of cells of the board */
+    private final int cells;
+
+    /* Number of slots in the ring */
+    private final int capacity;
+
+    /* The tiles of every slot as exponents, slot after slot; null once the
+       ring holds values */
+    private byte[] exponents;
+
+    /* The tiles of every slot as values, null until a board has a tile that
+       is not a power of two */
+    private int[] values;
+
+    /* The score of every slot */
+    private final int[] scores;
+
+    /* The slot of the current state */
+    private int cursor;
+
+    /* Number of states before and after the cursor */
+    private int undoCount;
+    private int redoCount;
+
+    /**
+     * Allocates the history
+     *
+     * @param size the size of the board
+     * @param capacity the number of states to keep, at least 2
+     */
+    public BoardHistory(int size, int capacity) {
+        if (capacity < 2) {
+            throw new IllegalArgumentException("capacity must be at least 2: " + capacity);
+        }
+        this.cells = size * size;
+        this.capacity = capacity;
+        this.exponents = new byte[capacity * this.cells];
+        this.scores = new int[capacity];
+    }
+
+    /**
+     * Works out how many states of a board fit in a memory budget, so that
+     * large boards keep fewer states instead of taking gigabytes
+     *
+     * @param size the size of the board
+     * @param budgetBytes the most memory the ring may take
+     * @return the number of states to keep, from 2 up to DEFAULT_CAPACITY
+     */
+    public static int capacityFor(int size, long budgetBytes) {
+        long slotBytes = 4L * size * size + 4;
+        return (int) Math.max(2, Math.min(DEFAULT_CAPACITY, budgetBytes / slotBytes));
+    }
+
+    /**
+     * Saves the state of a board that is about to move, dropping the states
+     * that could be redone
+     *
+     * @param board the board before the move
+     */
+    public void push(Board board) {
+        this.save(board);
+        this.cursor = this.next(this.cursor);
+        this.undoCount = Math.min(this.undoCount + 1, this.capacity - 1);
+        this.redoCount = 0;
+    }
+
+    /**
+     * @return true if there is a state to undo to
+     */
+    public boolean canUndo() {
+        return this.undoCount > 0;
+    }
+
+    /**
+     * @return true if there is a state to redo to
+     */
+    public boolean canRedo() {
+        return this.redoCount > 0;
+    }
+
+    /**
+     * Puts a board back into the state before its last move
+     *
+     * @param board the board
+     * @return false if there was nothing to undo
+     */
+    public boolean undo(Board board) {
+        if (this.undoCount == 0) {
+            return false;
+        }
+        this.save(board);
+        this.cursor = this.previous(this.cursor);
+        this.undoCount--;
+        this.redoCount++;
+        this.load(board);
+        return true;
+    }
+
+    /**
+     * Replays the last undone move on a board
+     *
+     * @param board the board
+     * @return false if there was nothing to redo
+     */
+    public boolean redo(Board board) {
+        if (this.redoCount == 0) {
+            return false;
+        }
+        this.save(board);
+        this.cursor = this.next(this.cursor);
+        this.redoCount--;
+        this.undoCount++;
+        this.load(board);
+        return true;
+    }
+
+    /**
+     * Forgets every state
+     */
+    public void clear() {
+        this.undoCount = 0;
+        this.redoCount = 0;
+    }
+
+    /**
+     * Writes a board into the slot at the cursor
+     */
+    private void save(Board board) {
+        int offset = this.cursor * this.cells;
+        if (this.values == null && !board.tryGetExponents(this.exponents, offset)) {
+            this.switchToValues();
+        }
+        if (this.values != null) {
+            board.getTiles(this.values, offset);
+        }
+        this.scores[this.cursor] = board.getScore();
+    }
+
+    /**
+     * Loads the slot at the cursor into a board
+     */
+    private void load(Board board) {
+        int offset = this.cursor * this.cells;
+        if (this.values != null) {
+            board.setTiles(this.values, offset, this.scores[this.cursor]);
+        }
+        else {
+            board.setExponents(this.exponents, offset, this.scores[this.cursor]);
+        }
+    }
+
+    /**
+     * Converts every slot from exponents to values
+     */
+    private void switchToValues() {
+        this.values = new int[this.exponents.length];
+        for (int index = 0; index < this.values.length; index++) {
+            int exponent = this.exponents[index];
+            this.values[index] = exponent == 0 ? 0 : 1 << exponent;
+        }
+        this.exponents = null;
+    }
+
+    private int next(int slot) {
+        return slot + 1 == this.capacity ? 0 : slot + 1;
+    }
+
+    private int previous(int slot) {
+        return slot == 0 ? this.capacity - 1 : slot - 1;
+    }
+}
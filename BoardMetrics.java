@@ -0,0 +1,207 @@
+import java.util.concurrent.atomic.*;
+import java.lang.management.*;
+import javax.management.*;
+
+/**
+ * Counters and latency histograms for the Board hot paths, published as
+ * the MBean "Game2048:type=BoardMetrics". Metrics are off unless the JVM is
+ * started with -Dgame2048.metrics=true. ENABLED is a static final, so when
+ * it is false the JIT drops the checks around the instrumented code and the
+ * metrics cost nothing; when it is true every recording is a clock read and
+ * a few uncontended lock-free increments.
+ *
+ * Merges are counted as the cells a move empties, which is one per merge.
+ */
+public final class BoardMetrics implements BoardMetricsMBean {
+
+    /* Whether the metrics are recorded */
+    public static final boolean ENABLED = Boolean.getBoolean("game2048.metrics");
+
+    /* The name the metrics are registered under */
+    public static final String OBJECT_NAME = "Game2048:type=BoardMetrics";
+
+    /* The metrics of every Board in the JVM */
+    public static final BoardMetrics INSTANCE = new BoardMetrics();
+
+    static {
+        if (ENABLED) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(INSTANCE,
+                        new ObjectName(OBJECT_NAME));
+            }
+            catch (JMException e) {
+                System.out.println("Could not register " + OBJECT_NAME + ": " + e);
+            }
+        }
+    }
+
+    private final LongAdder invalidMoves = new LongAdder();
+    private final LongAdder merges = new LongAdder();
+    private final LogHistogram moveLatencies = new LogHistogram();
+    private final LogHistogram spawnLatencies = new LogHistogram();
+    private final LogHistogram gameOverLatencies = new LogHistogram();
+    private final LogHistogram guiUpdateLatencies = new LogHistogram();
+
+    /* When the metrics were last reset, for the move rate */
+    private volatile long resetNanos = System.nanoTime();
+
+    private BoardMetrics() {
+    }
+
+    /**
+     * Records a call to Board.move
+     *
+     * @param moved whether the board changed
+     * @param merged the number of merges
+     * @param nanos how long the call took
+     */
+    public void recordMove(boolean moved, int merged, long nanos) {
+        this.moveLatencies.record(nanos);
+        if (!moved) {
+            this.invalidMoves.increment();
+        }
+        else if (merged > 0) {
+            this.merges.add(merged);
+        }
+    }
+
+    /**
+     * Records a call to Board.addRandomTile
+     *
+     * @param nanos how long the call took
+     */
+    public void recordSpawn(long nanos) {
+        this.spawnLatencies.record(nanos);
+    }
+
+    /**
+     * Records a call to Board.isGameOver
+     *
+     * @param nanos how long the call took
+     */
+    public void recordGameOverCheck(long nanos) {
+        this.gameOverLatencies.record(nanos);
+    }
+
+    /**
+     * Records a move made in the GUI, from the key press to the redrawn tiles
+     *
+     * @param nanos how long the update took
+     */
+    public void recordGuiUpdate(long nanos) {
+        this.guiUpdateLatencies.record(nanos);
+    }
+
+    @Override
+    public long getMoves() {
+        return this.moveLatencies.getCount();
+    }
+
+    @Override
+    public long getInvalidMoves() {
+        return this.invalidMoves.sum();
+    }
+
+    @Override
+    public double getInvalidMoveRate() {
+        long moves = this.getMoves();
+        return moves == 0 ? 0 : (double) this.getInvalidMoves() / moves;
+    }
+
+    @Override
+    public long getMerges() {
+        return this.merges.sum();
+    }
+
+    @Override
+    public double getMovesPerSecond() {
+        double seconds = (System.nanoTime() - this.resetNanos) / 1e9;
+        return seconds <= 0 ? 0 : this.getMoves() / seconds;
+    }
+
+    @Override
+    public double getMoveLatencyMean() {
+        return this.moveLatencies.getMean();
+    }
+
+    @Override
+    public long getMoveLatencyP50() {
+        return this.moveLatencies.getPercentile(50);
+    }
+
+    @Override
+    public long getMoveLatencyP99() {
+        return this.moveLatencies.getPercentile(99);
+    }
+
+    @Override
+    public long getMoveLatencyP999() {
+        return this.moveLatencies.getPercentile(99.9);
+    }
+
+    @Override
+    public long getMoveLatencyMax() {
+        return this.moveLatencies.getMax();
+    }
+
+    @Override
+    public long getSpawns() {
+        return this.spawnLatencies.getCount();
+    }
+
+    @Override
+    public long getSpawnLatencyP50() {
+        return this.spawnLatencies.getPercentile(50);
+    }
+
+    @Override
+    public long getSpawnLatencyP99() {
+        return this.spawnLatencies.getPercentile(99);
+    }
+
+    @Override
+    public long getGameOverChecks() {
+        return this.gameOverLatencies.getCount();
+    }
+
+    @Override
+    public long getGameOverLatencyP50() {
+        return this.gameOverLatencies.getPercentile(50);
+    }
+
+    @Override
+    public long getGameOverLatencyP99() {
+        return this.gameOverLatencies.getPercentile(99);
+    }
+
+    @Override
+    public long getGuiUpdates() {
+        return this.guiUpdateLatencies.getCount();
+    }
+
+    @Override
+    public long getGuiUpdateLatencyP50() {
+        return this.guiUpdateLatencies.getPercentile(50);
+    }
+
+    @Override
+    public long getGuiUpdateLatencyP99() {
+        return this.guiUpdateLatencies.getPercentile(99);
+    }
+
+    @Override
+    public long getGuiUpdateLatencyMax() {
+        return this.guiUpdateLatencies.getMax();
+    }
+
+    @Override
+    public void reset() {
+        this.invalidMoves.reset();
+        this.merges.reset();
+        this.moveLatencies.reset();
+        this.spawnLatencies.reset();
+        this.gameOverLatencies.reset();
+        this.guiUpdateLatencies.reset();
+        this.resetNanos = System.nanoTime();
+    }
+}
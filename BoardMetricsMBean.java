@@ -0,0 +1,51 @@
+/**
+ * The attributes and operations BoardMetrics publishes over JMX. Latencies
+ * are in nanoseconds.
+ */
+public interface BoardMetricsMBean {
+
+    long getMoves();
+
+    long getInvalidMoves();
+
+    double getInvalidMoveRate();
+
+    long getMerges();
+
+    double getMovesPerSecond();
+
+    double getMoveLatencyMean();
+
+    long getMoveLatencyP50();
+
+    long getMoveLatencyP99();
+
+    long getMoveLatencyP999();
+
+    long getMoveLatencyMax();
+
+    long getSpawns();
+
+    long getSpawnLatencyP50();
+
+    long getSpawnLatencyP99();
+
+    long getGameOverChecks();
+
+    long getGameOverLatencyP50();
+
+    long getGameOverLatencyP99();
+
+    long getGuiUpdates();
+
+    long getGuiUpdateLatencyP50();
+
+    long getGuiUpdateLatencyP99();
+
+    long getGuiUpdateLatencyMax();
+
+    /**
+     * Clears every counter and histogram
+     */
+    void reset();
+}
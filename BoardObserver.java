@@ -0,0 +1,14 @@
+/**
+ * Receives a callback whenever the tiles or the score of a Board change, so
+ * a front end can follow the game without polling or saving the board.
+ */
+public interface BoardObserver {
+
+    /**
+     * Called after a change to the board, on the thread that made it. The
+     * board must not be changed from inside the callback.
+     *
+     * @param board the board that changed
+     */
+    void boardChanged(Board board);
+}
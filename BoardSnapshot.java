@@ -0,0 +1,69 @@
+/**
+ * An immutable copy of the state of a Board: its size, its score and a read
+ * only view of its tiles.
+ */
+public final class BoardSnapshot {
+
+    /* The size of the grid */
+    private final int size;
+
+    /* The score when the snapshot was taken */
+    private final int score;
+
+    /* The tile values in row-major order */
+    private final int[] tiles;
+
+    /**
+     * Creates a snapshot. The tile array is kept, not copied, so the caller
+     * must not change it afterwards.
+     *
+     * @param size the size of the grid
+     * @param score the score
+     * @param tiles the size * size tile values in row-major order
+     */
+    BoardSnapshot(int size, int score, int[] tiles) {
+        this.size = size;
+        this.score = score;
+        this.tiles = tiles;
+    }
+
+    /**
+     * @return the size of the grid
+     */
+    public int getSize() {
+        return this.size;
+    }
+
+    /**
+     * @return the score when the snapshot was taken
+     */
+    public int getScore() {
+        return this.score;
+    }
+
+    /**
+     * return the tile value in a particular cell in the grid.
+     *
+     * @param row The row
+     * @param col The column
+     * @return The value of the tile at (row, col)
+     */
+    public int getTileValue(int row, int col) {
+        return this.tiles[row * this.size + col];
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder outputString = new StringBuilder();
+        outputString.append(String.format("Score: %d\n", this.score));
+        for (int row = 0; row < this.size; row++) {
+            for (int column = 0; column < this.size; column++) {
+                int tileValue = this.getTileValue(row, column);
+                outputString.append(tileValue == 0 ? "    -" :
+                        String.format("%5d", tileValue));
+            }
+            outputString.append("\n");
+        }
+        return outputString.toString();
+    }
+}
@@ -0,0 +1,315 @@
+import javafx.animation.*;
+import javafx.scene.canvas.*;
+import javafx.scene.paint.*;
+import javafx.scene.text.*;
+import javafx.geometry.*;
+import java.util.*;
+
+/**
+ * Draws a Board onto a single Canvas instead of a node per tile, for boards
+ * too large for the scene graph. An AnimationTimer redraws the canvas on
+ * every frame while something is moving and leaves it alone otherwise.
+ *
+ * Moves are animated in two phases: the tiles slide from their old cells to
+ * their new ones, then merged tiles pulse and the new random tile grows in.
+ * The paths are worked out from the tiles before the move, sliding every
+ * line the same way Board does, and the new tile is the one cell that the
+ * slide alone does not explain.
+ *
+ * Input is queued and run at the start of the next frame, so all the key
+ * presses that arrive between two frames are handled together: every move
+ * but the last is applied without being shown, and only the last one is
+ * animated.
+ */
+public class CanvasBoardView {
+
+    /* Length of the slide and of the merge/spawn phase, in nanoseconds */
+    private static final long SLIDE_NANOS = 90000000L;
+    private static final long POP_NANOS = 90000000L;
+
+    /* The largest the canvas gets, in pixels */
+    private static final double MAX_CANVAS_SIZE = 800;
+
+    /* Inputs waiting beyond this many are dropped, so held keys cannot
+       queue up moves faster than they are drawn */
+    private static final int MAX_PENDING = 8;
+
+    private static final Color BACKGROUND = Color.rgb(187, 173, 160);
+
+    private final Board board;
+    private final int size;
+    private final Canvas canvas;
+    private final GraphicsContext graphics;
+
+    /* Geometry: distance between tile origins, gap between tiles */
+    private final double cellSize;
+    private final double gap;
+    private final Font[] fonts;
+
+    /* Inputs to run at the next frame */
+    private final ArrayDeque<Runnable> pending = new ArrayDeque<Runnable>();
+
+    /* The tiles that are drawn when nothing moves, row-major */
+    private final int[] shown;
+
+    /* The tiles before the move being prepared, and its direction */
+    private final int[] before;
+    private Direction preparedMove;
+
+    /* The tiles after the slide, before the new tile */
+    private final int[] slid;
+
+    /* Sliding tiles of the current animation: old cell, new cell, value */
+    private final int[] spriteFrom;
+    private final int[] spriteTo;
+    private final int[] spriteValue;
+    private int spriteCount;
+
+    /* Cells that got a merged tile, and the cell of the new tile or -1 */
+    private final boolean[] merged;
+    private int spawnCell = -1;
+
+    /* When the current animation started, 0 for none yet; -1 if idle */
+    private long animationStart = -1;
+
+    /* Whether the canvas needs to be drawn again */
+    private boolean dirty = true;
+
+    private final AnimationTimer timer = new AnimationTimer() {
+        @Override
+        public void handle(long now) {
+            frame(now);
+        }
+    };
+
+    /**
+     * Creates the view and its canvas
+     *
+     * @param board the board to draw
+     */
+    public CanvasBoardView(Board board) {
+        this.board = board;
+        this.size = board.GRID_SIZE;
+        int cells = this.size * this.size;
+        this.shown = new int[cells];
+        this.before = new int[cells];
+        this.slid = new int[cells];
+        this.spriteFrom = new int[cells];
+        this.spriteTo = new int[cells];
+        this.spriteValue = new int[cells];
+        this.merged = new boolean[cells];
+
+        this.cellSize = Math.min(Constants2048.TILE_WIDTH + 15, MAX_CANVAS_SIZE / this.size);
+        this.gap = Math.max(1, this.cellSize * 0.12);
+        this.fonts = Gui2048.createFonts(this.cellSize - this.gap);
+        double canvasSize = this.size * this.cellSize + this.gap;
+        this.canvas = new Canvas(canvasSize, canvasSize);
+        this.graphics = this.canvas.getGraphicsContext2D();
+        this.graphics.setTextAlign(TextAlignment.CENTER);
+        this.graphics.setTextBaseline(VPos.CENTER);
+        this.readBoard(this.shown);
+    }
+
+    /**
+     * @return the canvas the board is drawn on
+     */
+    public Canvas getCanvas() {
+        return this.canvas;
+    }
+
+    /**
+     * Starts drawing frames
+     */
+    public void start() {
+        this.timer.start();
+    }
+
+    /**
+     * Queues an input to run at the start of the next frame
+     *
+     * @param input the input handler
+     */
+    public void submit(Runnable input) {
+        if (this.pending.size() < MAX_PENDING) {
+            this.pending.add(input);
+        }
+    }
+
+    /**
+     * Remembers the tiles before a move so it can be animated. Call it just
+     * before the board moves and call update once the new tile is added.
+     *
+     * @param direction the direction of the move
+     */
+    public void prepareMove(Direction direction) {
+        this.readBoard(this.before);
+        this.preparedMove = direction;
+    }
+
+    /**
+     * Catches up with the board: animates the prepared move if there is
+     * one, otherwise shows the board as it is
+     */
+    public void update() {
+        this.readBoard(this.shown);
+        this.spriteCount = 0;
+        this.spawnCell = -1;
+        Arrays.fill(this.merged, false);
+        if (this.preparedMove != null) {
+            this.planAnimation(this.preparedMove);
+            this.preparedMove = null;
+            this.animationStart = 0;
+        }
+        else {
+            this.animationStart = -1;
+        }
+        this.dirty = true;
+    }
+
+    /**
+     * Copies the tiles of the board, row-major
+     */
+    private void readBoard(int[] tiles) {
+        for (int row = 0; row < this.size; row++) {
+            for (int column = 0; column < this.size; column++) {
+                tiles[row * this.size + column] = this.board.getTileValue(row, column);
+            }
+        }
+    }
+
+    /**
+     * Works out where every tile of before went, which cells got a merged
+     * tile and which cell got the new tile
+     */
+    private void planAnimation(Direction direction) {
+        int[] slid = this.slid;
+        Arrays.fill(slid, 0);
+        for (int line = 0; line < this.size; line++) {
+            int write = 0;
+            int pendingValue = 0;
+            for (int read = 0; read < this.size; read++) {
+                int from = this.lineCell(line, read, direction);
+                int tileValue = this.before[from];
+                if (tileValue == 0) {
+                    continue;
+                }
+                int to;
+                if (tileValue == pendingValue) {
+                    //merges with the tile waiting in the previous cell
+                    to = this.lineCell(line, write - 1, direction);
+                    slid[to] = tileValue * 2;
+                    this.merged[to] = true;
+                    pendingValue = 0;
+                }
+                else {
+                    to = this.lineCell(line, write++, direction);
+                    slid[to] = tileValue;
+                    pendingValue = tileValue;
+                }
+                this.spriteFrom[this.spriteCount] = from;
+                this.spriteTo[this.spriteCount] = to;
+                this.spriteValue[this.spriteCount] = tileValue;
+                this.spriteCount++;
+            }
+        }
+        for (int cell = 0; cell < slid.length; cell++) {
+            if (slid[cell] == 0 && this.shown[cell] != 0) {
+                this.spawnCell = cell;
+            }
+        }
+    }
+
+    /**
+     * @return the cell at a position of a line, position 0 being the side
+     * the tiles slide towards
+     */
+    private int lineCell(int line, int position, Direction direction) {
+        int index = direction.reverse ? this.size - 1 - position : position;
+        return direction.vertical ? index * this.size + line : line * this.size + index;
+    }
+
+    /**
+     * Runs the queued input and draws the frame if anything changed
+     */
+    private void frame(long now) {
+        while (!this.pending.isEmpty()) {
+            this.pending.poll().run();
+        }
+        if (this.animationStart == 0) {
+            this.animationStart = now;
+        }
+        if (!this.dirty && this.animationStart < 0) {
+            return;
+        }
+        this.dirty = false;
+
+        this.graphics.setFill(BACKGROUND);
+        this.graphics.fillRect(0, 0, this.canvas.getWidth(), this.canvas.getHeight());
+        for (int cell = 0; cell < this.shown.length; cell++) {
+            this.drawTile(cell / this.size, cell % this.size, 0, 1);
+        }
+
+        long elapsed = this.animationStart < 0 ? Long.MAX_VALUE : now - this.animationStart;
+        if (elapsed < SLIDE_NANOS) {
+            double progress = (double) elapsed / SLIDE_NANOS;
+            for (int sprite = 0; sprite < this.spriteCount; sprite++) {
+                int from = this.spriteFrom[sprite];
+                int to = this.spriteTo[sprite];
+                double row = from / this.size + (to / this.size - from / this.size) * progress;
+                double column = from % this.size
+                        + (to % this.size - from % this.size) * progress;
+                this.drawTile(row, column, this.spriteValue[sprite], 1);
+            }
+            return;
+        }
+
+        double pop = Math.min(1.0, (double) (elapsed - SLIDE_NANOS) / POP_NANOS);
+        for (int cell = 0; cell < this.shown.length; cell++) {
+            if (this.shown[cell] == 0) {
+                continue;
+            }
+            double scale = 1;
+            if (cell == this.spawnCell) {
+                scale = pop;
+            }
+            else if (this.merged[cell]) {
+                scale = 1 + 0.15 * Math.sin(Math.PI * pop);
+            }
+            this.drawTile(cell / this.size, cell % this.size, this.shown[cell], scale);
+        }
+        if (pop >= 1) {
+            this.animationStart = -1;
+        }
+    }
+
+    /**
+     * Draws one tile
+     *
+     * @param row the row, fractional while sliding
+     * @param column the column, fractional while sliding
+     * @param tileValue the value, 0 for an empty cell
+     * @param scale the size of the tile relative to a full tile
+     */
+    private void drawTile(double row, double column, int tileValue, double scale) {
+        double tile = this.cellSize - this.gap;
+        double width = tile * scale;
+        double x = this.gap + column * this.cellSize + (tile - width) / 2;
+        double y = this.gap + row * this.cellSize + (tile - width) / 2;
+        int exponent = Integer.numberOfTrailingZeros(tileValue);
+        boolean cached = tileValue == 0 || (tileValue == (1 << exponent) && exponent > 0);
+        if (tileValue == 0) {
+            exponent = 0;
+        }
+        this.graphics.setFill(cached ? Gui2048.TILE_COLORS[exponent] : Constants2048.COLOR_OTHER);
+        this.graphics.fillRoundRect(x, y, width, width, width * 0.1, width * 0.1);
+        if (tileValue == 0 || width < 4) {
+            return;
+        }
+        int fontIndex = cached ? exponent
+                : Math.max(1, 31 - Integer.numberOfLeadingZeros(tileValue));
+        this.graphics.setFont(this.fonts[fontIndex]);
+        this.graphics.setFill(cached ? Gui2048.TEXT_COLORS[exponent] : Color.WHITE);
+        this.graphics.fillText(cached ? Gui2048.TILE_TEXTS[exponent] : String.valueOf(tileValue),
+                x + width / 2, y + width / 2);
+    }
+}
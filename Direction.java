@@ -0,0 +1,104 @@
+/**
+ * The four directions the tiles of a Board can be moved in.
+ *
+ * Every direction is described by how its lines map onto a left move: up and
+ * down work on the transposed board (columns instead of rows), right and down
+ * read each line in reverse. This lets one slide kernel serve all four
+ * directions.
+ */
+public enum Direction {
+    LEFT(false, false),
+    RIGHT(false, true),
+    UP(true, false),
+    DOWN(true, true);
+
+    /* The directions indexed by ordinal */
+    private static final Direction[] VALUES = values();
+
+    /* True if the direction works on columns rather than rows */
+    public final boolean vertical;
+
+    /* True if the direction slides towards the last row or column */
+    public final boolean reverse;
+
+    Direction(boolean vertical, boolean reverse) {
+        this.vertical = vertical;
+        this.reverse = reverse;
+    }
+
+    /**
+     * Looks up a direction by ordinal
+     *
+     * @param ordinal the ordinal of the direction
+     * @return the direction with that ordinal
+     */
+    public static Direction fromOrdinal(int ordinal) {
+        return VALUES[ordinal];
+    }
+
+    /**
+     * Looks up a direction by its first letter
+     *
+     * @param letter one of 'L', 'R', 'U' or 'D'
+     * @return the matching direction, or null if there is none
+     */
+    public static Direction fromLetter(char letter) {
+        switch (letter) {
+            case 'L':
+                return LEFT;
+            case 'R':
+                return RIGHT;
+            case 'U':
+                return UP;
+            case 'D':
+                return DOWN;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Converts a sequence of moves written as first letters, such as
+     * "LURD", into direction ordinals for Board.moveAll
+     *
+     * @param moves the letters of the moves
+     * @return the ordinal of every move, one per byte
+     * @throws IllegalArgumentException if a letter is not a direction
+     */
+    public static byte[] parseMoves(CharSequence moves) {
+        byte[] ordinals = new byte[moves.length()];
+        for (int index = 0; index < ordinals.length; index++) {
+            Direction direction = fromLetter(moves.charAt(index));
+            if (direction == null) {
+                throw new IllegalArgumentException("Unknown move '" + moves.charAt(index)
+                        + "' at " + index);
+            }
+            ordinals[index] = (byte) direction.ordinal();
+        }
+        return ordinals;
+    }
+
+    /**
+     * Looks up a direction by the name used by Board's direction strings
+     *
+     * @param direction one of "LEFT", "RIGHT", "UP" or "DOWN"
+     * @return the matching direction, or null if there is none
+     */
+    public static Direction fromString(String direction) {
+        if (direction == null) {
+            return null;
+        }
+        switch (direction) {
+            case "LEFT":
+                return LEFT;
+            case "RIGHT":
+                return RIGHT;
+            case "UP":
+                return UP;
+            case "DOWN":
+                return DOWN;
+            default:
+                return null;
+        }
+    }
+}
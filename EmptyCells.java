@@ -0,0 +1,170 @@
+/**
+ * The set of empty cells of a board, updated as tiles are placed and cleared
+ * so that a random empty cell can be picked in constant time. Cells are
+ * numbered row * size + column.
+ *
+ * Boards of up to 64 cells keep the set as a bitmask. Larger boards keep the
+ * empty cells in a dense array together with the position of every cell in
+ * that array, so a cell is removed by swapping the last entry into its slot.
+ */
+public final class EmptyCells {
+
+    /* Largest number of cells kept in the bitmask */
+    private static final int MASK_CAPACITY = 64;
+
+    /* The number of cells of the board */
+    private final int capacity;
+
+    /* The empty cells of a small board, one bit per cell */
+    private long mask;
+
+    /* The empty cells of a large board, in no particular order */
+    private final int[] cells;
+
+    /* The index of each cell in cells, or -1 if the cell is not empty */
+    private final int[] positions;
+
+    /* The number of entries in cells */
+    private int count;
+
+    /**
+     * Creates an empty set for a board with the given number of cells
+     *
+     * @param capacity the number of cells of the board
+     */
+    public EmptyCells(int capacity) {
+        this.capacity = capacity;
+        if (capacity <= MASK_CAPACITY) {
+            this.cells = null;
+            this.positions = null;
+        }
+        else {
+            this.cells = new int[capacity];
+            this.positions = new int[capacity];
+            java.util.Arrays.fill(this.positions, -1);
+        }
+    }
+
+    /**
+     * @return the number of cells of the board
+     */
+    public int capacity() {
+        return this.capacity;
+    }
+
+    /**
+     * @return the number of empty cells
+     */
+    public int size() {
+        if (this.cells == null) {
+            return Long.bitCount(this.mask);
+        }
+        return this.count;
+    }
+
+    /**
+     * @return true if the cell is in the set
+     */
+    public boolean contains(int cell) {
+        if (this.cells == null) {
+            return (this.mask & (1L << cell)) != 0;
+        }
+        return this.positions[cell] >= 0;
+    }
+
+    /**
+     * Adds a cell to the set, doing nothing if it is already there
+     *
+     * @param cell the cell that became empty
+     */
+    public void add(int cell) {
+        if (this.cells == null) {
+            this.mask |= 1L << cell;
+            return;
+        }
+        if (this.positions[cell] >= 0) {
+            return;
+        }
+        this.positions[cell] = this.count;
+        this.cells[this.count++] = cell;
+    }
+
+    /**
+     * Removes a cell from the set, doing nothing if it is not there
+     *
+     * @param cell the cell that received a tile
+     */
+    public void remove(int cell) {
+        if (this.cells == null) {
+            this.mask &= ~(1L << cell);
+            return;
+        }
+        int position = this.positions[cell];
+        if (position < 0) {
+            return;
+        }
+        //move the last entry into the freed slot
+        int last = this.cells[--this.count];
+        this.cells[position] = last;
+        this.positions[last] = position;
+        this.positions[cell] = -1;
+    }
+
+    /**
+     * Returns an empty cell by index. Small boards number the empty cells
+     * in row-major order; large boards use the order of the dense array.
+     *
+     * @param index a number between 0 and size() - 1
+     * @return the index-th empty cell
+     */
+    public int get(int index) {
+        if (this.cells != null) {
+            return this.cells[index];
+        }
+        //narrow down to the bit by halving the searched range
+        long bits = this.mask;
+        int cell = 0;
+        for (int width = 32; width > 0; width >>>= 1) {
+            long low = bits & ((1L << width) - 1);
+            int lowCount = Long.bitCount(low);
+            if (index >= lowCount) {
+                index -= lowCount;
+                bits >>>= width;
+                cell += width;
+            }
+            else {
+                bits = low;
+            }
+        }
+        return cell;
+    }
+
+    /**
+     * Makes this set hold the same cells as another set of the same capacity
+     *
+     * @param other the set to copy
+     */
+    public void copyFrom(EmptyCells other) {
+        if (this.cells == null) {
+            this.mask = other.mask;
+            return;
+        }
+        System.arraycopy(other.cells, 0, this.cells, 0, other.count);
+        System.arraycopy(other.positions, 0, this.positions, 0, this.capacity);
+        this.count = other.count;
+    }
+
+    /**
+     * Removes every cell from the set
+     */
+    public void clear() {
+        if (this.cells == null) {
+            this.mask = 0;
+            return;
+        }
+        for (int position = 0; position < this.count; position++) {
+            this.positions[this.cells[position]] = -1;
+        }
+        this.count = 0;
+    }
+}
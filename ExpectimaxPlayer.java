@@ -0,0 +1,334 @@
+import java.util.*;
+
+/**
+ * Chooses moves for 4x4 boards with an expectimax search. Max nodes try the
+ * four moves, chance nodes average over every empty cell receiving a 2 or a
+ * 4, weighted by the board's TWO_PROBABILITY. The search runs on the packed
+ * BitBoard form and deepens one move at a time until the time budget for the
+ * move runs out, keeping the choice of the deepest finished search.
+ *
+ * Chance nodes are cached in a transposition table keyed by the packed board
+ * and the remaining depth. The player keeps running totals of the searched
+ * nodes, the time spent and the table hits so the search can be tuned.
+ */
+public class ExpectimaxPlayer implements MoveSelector {
+
+    /* Default time budget for choosing a move, in milliseconds */
+    public static final long DEFAULT_BUDGET_MILLIS = 50;
+
+    /* Deepest search, in moves */
+    private static final int MAX_DEPTH = 10;
+
+    /* Chance branches less likely than this are evaluated instead of searched */
+    private static final double PROBABILITY_CUTOFF = 0.0001;
+
+    /* log2 of the number of transposition table entries */
+    private static final int TABLE_BITS = 20;
+
+    /* The clock is read once every this many nodes (minus one) */
+    private static final int CLOCK_MASK = 1023;
+
+    /* Heuristic weights */
+    private static final double LOST_PENALTY = 200000;
+    private static final double MONOTONICITY_POWER = 4;
+    private static final double MONOTONICITY_WEIGHT = 47;
+    private static final double SUM_POWER = 3.5;
+    private static final double SUM_WEIGHT = 11;
+    private static final double MERGES_WEIGHT = 700;
+    private static final double EMPTY_WEIGHT = 270;
+
+    /* Heuristic value of every possible row, indexed like BitBoard rows */
+    private static final float[] ROW_HEURISTIC = new float[65536];
+
+    static {
+        int[] line = new int[4];
+        for (int row = 0; row < 65536; row++) {
+            for (int column = 0; column < 4; column++) {
+                line[column] = (row >>> (4 * column)) & 0xF;
+            }
+            ROW_HEURISTIC[row] = (float) rowHeuristic(line);
+        }
+    }
+
+    /* Time budget for choosing a move, in nanoseconds */
+    private final long budgetNanos;
+
+    /* Transposition table: packed board, value and remaining depth (0 if unused) */
+    private final long[] tableKeys = new long[1 << TABLE_BITS];
+    private final float[] tableValues = new float[1 << TABLE_BITS];
+    private final byte[] tableDepths = new byte[1 << TABLE_BITS];
+
+    /* Probability of spawning a 2 for the board being searched */
+    private double twoProbability;
+
+    /* When the current search has to stop, and whether it has */
+    private long deadline;
+    private boolean timedOut;
+
+    /* Running totals for tuning */
+    private long nodes;
+    private long cacheLookups;
+    private long cacheHits;
+    private long searchNanos;
+    private int lastDepth;
+
+    /**
+     * Creates a player with the default time budget
+     */
+    public ExpectimaxPlayer() {
+        this(DEFAULT_BUDGET_MILLIS);
+    }
+
+    /**
+     * Creates a player
+     *
+     * @param budgetMillis the time budget for choosing a move, in milliseconds
+     */
+    public ExpectimaxPlayer(long budgetMillis) {
+        this.budgetNanos = budgetMillis * 1000000L;
+    }
+
+    /**
+     * @return true if the board can be searched, meaning it is 4x4 and fits
+     * in a BitBoard
+     */
+    public static boolean supports(Board board) {
+        return board.toBitBoard() != BitBoard.INVALID;
+    }
+
+    /**
+     * Picks the move with the best expected heuristic value.
+     *
+     * @param board the board to move on, which must be supported
+     * @return the direction to move in, or null if no move is possible
+     */
+    @Override
+    public Direction chooseMove(Board board) {
+        long packed = board.toBitBoard();
+        if (packed == BitBoard.INVALID) {
+            throw new IllegalArgumentException("Expectimax needs a 4x4 board "
+                    + "with tiles up to " + (1 << BitBoard.MAX_PACKED_EXPONENT));
+        }
+        this.twoProbability = board.TWO_PROBABILITY / 100.0;
+        Arrays.fill(this.tableDepths, (byte) 0);
+
+        long start = System.nanoTime();
+        this.deadline = start + this.budgetNanos;
+        Direction best = null;
+        for (int depth = 1; depth <= MAX_DEPTH; depth++) {
+            //the first iteration always finishes so there is a move to play
+            this.timedOut = false;
+            Direction choice = this.searchRoot(packed, depth, depth > 1);
+            if (this.timedOut) {
+                break;
+            }
+            best = choice;
+            this.lastDepth = depth;
+            if (choice == null || System.nanoTime() > this.deadline) {
+                break;
+            }
+        }
+        this.searchNanos += System.nanoTime() - start;
+        return best;
+    }
+
+    /**
+     * Runs one iteration of the search from the root
+     *
+     * @param board the packed board
+     * @param depth the number of moves to look ahead
+     * @param timed whether the iteration may be cut off by the deadline
+     * @return the best move, or null if no move is possible
+     */
+    private Direction searchRoot(long board, int depth, boolean timed) {
+        long savedDeadline = this.deadline;
+        if (!timed) {
+            this.deadline = Long.MAX_VALUE;
+        }
+        Direction best = null;
+        double bestValue = -1;
+        for (Direction direction : Direction.values()) {
+            long moved = BitBoard.move(board, direction);
+            if (moved == board) {
+                continue;
+            }
+            double value = this.chanceNode(moved, depth - 1, 1.0);
+            if (value > bestValue) {
+                bestValue = value;
+                best = direction;
+            }
+        }
+        this.deadline = savedDeadline;
+        return best;
+    }
+
+    /**
+     * @return the best value over the moves of a board, 0 if none is possible
+     */
+    private double maxNode(long board, int depth, double probability) {
+        double best = 0;
+        for (Direction direction : Direction.values()) {
+            long moved = BitBoard.move(board, direction);
+            if (moved != board) {
+                best = Math.max(best, this.chanceNode(moved, depth, probability));
+            }
+        }
+        return best;
+    }
+
+    /**
+     * @return the expected value of a board over the tiles that can spawn on it
+     */
+    private double chanceNode(long board, int depth, double probability) {
+        if (depth == 0 || probability < PROBABILITY_CUTOFF) {
+            return evaluate(board);
+        }
+        if (this.timedOut) {
+            return 0;
+        }
+        if ((++this.nodes & CLOCK_MASK) == 0 && System.nanoTime() > this.deadline) {
+            this.timedOut = true;
+            return 0;
+        }
+
+        int slot = (int) ((board * 0x9E3779B97F4A7C15L) >>> (64 - TABLE_BITS));
+        this.cacheLookups++;
+        if (this.tableDepths[slot] >= depth && this.tableKeys[slot] == board) {
+            this.cacheHits++;
+            return this.tableValues[slot];
+        }
+
+        int empty = emptyCells(board);
+        double twoWeight = this.twoProbability;
+        double fourWeight = 1 - twoWeight;
+        double cellProbability = probability / empty;
+        double sum = 0;
+        for (int shift = 0; shift < 64; shift += 4) {
+            if (((board >>> shift) & 0xF) != 0) {
+                continue;
+            }
+            sum += twoWeight * this.maxNode(board | (1L << shift), depth - 1,
+                    cellProbability * twoWeight);
+            sum += fourWeight * this.maxNode(board | (2L << shift), depth - 1,
+                    cellProbability * fourWeight);
+        }
+        double value = sum / empty;
+
+        if (!this.timedOut) {
+            this.tableKeys[slot] = board;
+            this.tableValues[slot] = (float) value;
+            this.tableDepths[slot] = (byte) depth;
+        }
+        return value;
+    }
+
+    /**
+     * @return the number of empty cells of a packed board
+     */
+    private static int emptyCells(long board) {
+        //fold every nibble onto its lowest bit, set for occupied cells
+        long occupied = board | (board >>> 1);
+        occupied |= occupied >>> 2;
+        return 16 - Long.bitCount(occupied & 0x1111111111111111L);
+    }
+
+    /**
+     * @return the heuristic value of a packed board, summed over rows and columns
+     */
+    private static double evaluate(long board) {
+        long transposed = BitBoard.transpose(board);
+        return ROW_HEURISTIC[(int) (board & 0xFFFF)]
+                + ROW_HEURISTIC[(int) ((board >>> 16) & 0xFFFF)]
+                + ROW_HEURISTIC[(int) ((board >>> 32) & 0xFFFF)]
+                + ROW_HEURISTIC[(int) (board >>> 48)]
+                + ROW_HEURISTIC[(int) (transposed & 0xFFFF)]
+                + ROW_HEURISTIC[(int) ((transposed >>> 16) & 0xFFFF)]
+                + ROW_HEURISTIC[(int) ((transposed >>> 32) & 0xFFFF)]
+                + ROW_HEURISTIC[(int) (transposed >>> 48)];
+    }
+
+    /**
+     * Scores a line of exponents: empty cells and equal neighbours are
+     * rewarded, lines that are not monotonic and large tiles are penalised.
+     */
+    private static double rowHeuristic(int[] line) {
+        double sum = 0;
+        int empty = 0;
+        int merges = 0;
+        int previous = 0;
+        int counter = 0;
+        for (int exponent : line) {
+            sum += Math.pow(exponent, SUM_POWER);
+            if (exponent == 0) {
+                empty++;
+            }
+            else {
+                if (previous == exponent) {
+                    counter++;
+                }
+                else if (counter > 0) {
+                    merges += 1 + counter;
+                    counter = 0;
+                }
+                previous = exponent;
+            }
+        }
+        if (counter > 0) {
+            merges += 1 + counter;
+        }
+
+        double monotonicityLeft = 0;
+        double monotonicityRight = 0;
+        for (int index = 1; index < 4; index++) {
+            double difference = Math.pow(line[index - 1], MONOTONICITY_POWER)
+                    - Math.pow(line[index], MONOTONICITY_POWER);
+            if (difference > 0) {
+                monotonicityLeft += difference;
+            }
+            else {
+                monotonicityRight -= difference;
+            }
+        }
+
+        return LOST_PENALTY + EMPTY_WEIGHT * empty + MERGES_WEIGHT * merges
+                - MONOTONICITY_WEIGHT * Math.min(monotonicityLeft, monotonicityRight)
+                - SUM_WEIGHT * sum;
+    }
+
+    /**
+     * @return the number of chance nodes searched so far
+     */
+    public long getNodes() {
+        return this.nodes;
+    }
+
+    /**
+     * @return the chance nodes searched per second of search time
+     */
+    public double getNodesPerSecond() {
+        return this.searchNanos == 0 ? 0 : this.nodes * 1e9 / this.searchNanos;
+    }
+
+    /**
+     * @return the fraction of transposition table lookups that were hits
+     */
+    public double getCacheHitRate() {
+        return this.cacheLookups == 0 ? 0 : (double) this.cacheHits / this.cacheLookups;
+    }
+
+    /**
+     * @return the depth of the last finished search
+     */
+    public int getLastDepth() {
+        return this.lastDepth;
+    }
+
+    /**
+     * @return a one line summary of the search statistics
+     */
+    public String getStatistics() {
+        return String.format("depth %d, %d nodes, %.0f nodes/s, cache hit rate %.1f%%",
+                this.lastDepth, this.nodes, this.getNodesPerSecond(),
+                100 * this.getCacheHitRate());
+    }
+}
@@ -0,0 +1,352 @@
+import java.util.*;
+import java.io.*;
+
+/**
+ * Append-only journal of games, compact enough to keep millions of them.
+ * A game is stored as the seed of its Random, its board size and its moves
+ * at 2 bits per move, which is all it takes to play it again exactly:
+ * replaying creates Board(new Random(seed), size) and applies every move
+ * followed by addRandomTile(), the same way Gui2048 and Simulator2048 play.
+ *
+ * A journal starts with the four bytes "2JNL" and a version byte. Every game
+ * follows as a frame: the length of the rest of the frame as a varint, the
+ * seed as a big-endian long, the size and the number of moves as varints and
+ * then the moves, four to a byte with the first move in the lowest bits.
+ * Direction ordinals are used as move codes.
+ */
+public final class GameJournal {
+
+    /* The first four bytes of a journal, "2JNL" in ASCII */
+    public static final int MAGIC = 0x324A4E4C;
+
+    /* The current version of the format */
+    public static final byte VERSION = 1;
+
+    private GameJournal() {
+    }
+
+    /**
+     * Collects the moves of one game until it is written to a journal.
+     * Not thread safe; use one recorder per game in progress.
+     */
+    public static final class Recorder {
+
+        private long seed;
+        private int size;
+        private int moveCount;
+        private byte[] moves = new byte[64];
+
+        /**
+         * Starts recording a game
+         *
+         * @param seed the seed of the Random the board was created with
+         * @param size the size of the board
+         */
+        public Recorder(long seed, int size) {
+            this.reset(seed, size);
+        }
+
+        /**
+         * Forgets the recorded moves and starts a new game, reusing the
+         * move buffer
+         *
+         * @param seed the seed of the Random the board was created with
+         * @param size the size of the board
+         */
+        public void reset(long seed, int size) {
+            this.seed = seed;
+            this.size = size;
+            this.moveCount = 0;
+        }
+
+        /**
+         * Records a move that changed the board
+         *
+         * @param direction the direction of the move
+         */
+        public void record(Direction direction) {
+            int index = this.moveCount >>> 2;
+            if (index == this.moves.length) {
+                this.moves = Arrays.copyOf(this.moves, this.moves.length * 2);
+            }
+            int shift = 2 * (this.moveCount & 3);
+            if (shift == 0) {
+                this.moves[index] = 0;
+            }
+            this.moves[index] |= direction.ordinal() << shift;
+            this.moveCount++;
+        }
+
+        /**
+         * @return the number of recorded moves
+         */
+        public int getMoveCount() {
+            return this.moveCount;
+        }
+    }
+
+    /**
+     * Appends games to a journal file. Writing is synchronized, so one
+     * writer can be shared by many threads.
+     */
+    public static final class Writer implements Closeable {
+
+        private final DataOutputStream output;
+
+        /**
+         * Opens a journal for appending, writing the header if the file is
+         * new or empty
+         *
+         * @param outputFile the name of the file
+         */
+        public Writer(String outputFile) throws IOException {
+            File file = new File(outputFile);
+            boolean fresh = !file.exists() || file.length() == 0;
+            if (!fresh) {
+                DataInputStream input = new DataInputStream(new FileInputStream(file));
+                try {
+                    if (input.readInt() != MAGIC || input.readByte() != VERSION) {
+                        throw new IOException(outputFile + " is not a game journal");
+                    }
+                }
+                finally {
+                    input.close();
+                }
+            }
+            this.output = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(file, true)));
+            if (fresh) {
+                this.output.writeInt(MAGIC);
+                this.output.writeByte(VERSION);
+            }
+        }
+
+        /**
+         * Appends a game
+         *
+         * @param game the recorded game
+         */
+        public synchronized void write(Recorder game) throws IOException {
+            int moveBytes = (game.moveCount + 3) >>> 2;
+            int length = 8 + varintLength(game.size) + varintLength(game.moveCount) + moveBytes;
+            writeVarint(this.output, length);
+            this.output.writeLong(game.seed);
+            writeVarint(this.output, game.size);
+            writeVarint(this.output, game.moveCount);
+            this.output.write(game.moves, 0, moveBytes);
+        }
+
+        /**
+         * Pushes buffered games to the file
+         */
+        public synchronized void flush() throws IOException {
+            this.output.flush();
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            this.output.close();
+        }
+    }
+
+    /**
+     * Plays the games of a journal again, reading the file as it goes so
+     * only the current game's position is kept in memory.
+     */
+    public static final class Replayer implements Closeable {
+
+        private final DataInputStream input;
+
+        /* The current game */
+        private long seed;
+        private int size;
+        private int moveCount;
+
+        /* Moves of the current game read so far, and the byte being read */
+        private int movesRead;
+        private int moveByte;
+
+        /**
+         * Opens a journal and checks its header
+         *
+         * @param inputFile the name of the file
+         */
+        public Replayer(String inputFile) throws IOException {
+            this.input = new DataInputStream(new BufferedInputStream(
+                    new FileInputStream(inputFile)));
+            try {
+                if (this.input.readInt() != MAGIC) {
+                    throw new IOException(inputFile + " is not a game journal");
+                }
+                byte version = this.input.readByte();
+                if (version != VERSION) {
+                    throw new IOException(inputFile + " has unsupported version " + version);
+                }
+            }
+            catch (IOException e) {
+                this.input.close();
+                throw e;
+            }
+            this.movesRead = 0;
+            this.moveCount = 0;
+        }
+
+        /**
+         * Moves on to the next game, skipping the unread moves of the
+         * current one
+         *
+         * @return true if there was a game, false at the end of the journal
+         */
+        public boolean nextGame() throws IOException {
+            int unread = ((this.moveCount + 3) >>> 2) - ((this.movesRead + 3) >>> 2);
+            this.input.skipNBytes(unread);
+
+            int first = this.input.read();
+            if (first < 0) {
+                this.moveCount = 0;
+                this.movesRead = 0;
+                return false;
+            }
+            readVarint(this.input, first);
+            this.seed = this.input.readLong();
+            this.size = readVarint(this.input, this.input.readUnsignedByte());
+            this.moveCount = readVarint(this.input, this.input.readUnsignedByte());
+            this.movesRead = 0;
+            return true;
+        }
+
+        /**
+         * @return the seed of the current game
+         */
+        public long getSeed() {
+            return this.seed;
+        }
+
+        /**
+         * @return the board size of the current game
+         */
+        public int getSize() {
+            return this.size;
+        }
+
+        /**
+         * @return the number of moves of the current game
+         */
+        public int getMoveCount() {
+            return this.moveCount;
+        }
+
+        /**
+         * @return a board in the starting position of the current game
+         */
+        public Board startBoard() {
+            return new Board(new Random(this.seed), this.size);
+        }
+
+        /**
+         * Reads the next move of the current game
+         *
+         * @return the direction, or null after the last move
+         */
+        public Direction nextMove() throws IOException {
+            if (this.movesRead == this.moveCount) {
+                return null;
+            }
+            int shift = 2 * (this.movesRead & 3);
+            if (shift == 0) {
+                this.moveByte = this.input.readUnsignedByte();
+            }
+            this.movesRead++;
+            return Direction.fromOrdinal((this.moveByte >>> shift) & 3);
+        }
+
+        /**
+         * Plays the next move of the current game and the tile that followed it
+         *
+         * @param board the board the game is replayed on, started by startBoard
+         * @return false after the last move
+         * @throws IOException if the move does not change the board, meaning
+         * the journal does not belong to this board
+         */
+        public boolean step(Board board) throws IOException {
+            Direction direction = this.nextMove();
+            if (direction == null) {
+                return false;
+            }
+            if (!board.move(direction)) {
+                throw new IOException("Move " + this.movesRead + " (" + direction
+                        + ") does not change the board");
+            }
+            board.addRandomTile();
+            return true;
+        }
+
+        /**
+         * Replays the rest of the current game in one Board.moveAll call
+         *
+         * @param board the board the game is replayed on, started by startBoard
+         * @throws IOException if a move does not change the board, meaning
+         * the journal does not belong to this board
+         */
+        public void replay(Board board) throws IOException {
+            int first = this.movesRead;
+            byte[] moves = new byte[this.moveCount - first];
+            for (int index = 0; index < moves.length; index++) {
+                moves[index] = (byte) this.nextMove().ordinal();
+            }
+            boolean[] changed = new boolean[moves.length];
+            if (board.moveAll(moves, 0, moves.length, changed, null, null) == moves.length) {
+                return;
+            }
+            int index = 0;
+            while (changed[index]) {
+                index++;
+            }
+            throw new IOException("Move " + (first + index + 1) + " ("
+                    + Direction.fromOrdinal(moves[index]) + ") does not change the board");
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.input.close();
+        }
+    }
+
+    /**
+     * @return the number of bytes writeVarint uses for a value
+     */
+    private static int varintLength(int value) {
+        int length = 1;
+        while ((value >>>= 7) != 0) {
+            length++;
+        }
+        return length;
+    }
+
+    /**
+     * Writes a non-negative int 7 bits at a time, lowest bits first, with
+     * the top bit of each byte set when more bytes follow
+     */
+    private static void writeVarint(DataOutputStream output, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            output.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        output.writeByte(value);
+    }
+
+    /**
+     * Reads a varint whose first byte has already been read
+     */
+    private static int readVarint(DataInputStream input, int first) throws IOException {
+        int value = first & 0x7F;
+        int shift = 7;
+        int current = first;
+        while ((current & 0x80) != 0) {
+            current = input.readUnsignedByte();
+            value |= (current & 0x7F) << shift;
+            shift += 7;
+        }
+        return value;
+    }
+}
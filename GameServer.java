@@ -0,0 +1,288 @@
+import java.util.*;
+import java.util.concurrent.*;
+import java.io.*;
+import java.lang.reflect.*;
+import java.net.*;
+
+/**
+ * Hosts many independent games over TCP, so one JVM can serve many players
+ * instead of a single Gui2048 window. Every connection is handled by its own
+ * thread: a virtual thread when the JVM has them (Java 21 and later), a
+ * pooled platform thread otherwise. Sessions are not tied to a connection
+ * and can be picked up again from a new one. They are kept in a SessionStore,
+ * which spills the least recently used ones to disk so the heap stays
+ * bounded however many games are open.
+ *
+ * The protocol is line based. Every request is one line of words separated
+ * by spaces and gets one line back:
+ *
+ *   NEW [size] [seed]      starts a game and returns its state
+ *   MOVE id direction      moves LEFT, RIGHT, UP or DOWN, adds a random
+ *                          tile if the board changed and returns the state
+ *   MOVES id letters       plays a sequence of moves written as L, R, U and
+ *                          D, such as LURD, each like MOVE, and returns the
+ *                          state with the number of moves that changed the
+ *                          board as moved
+ *   STATE id               returns the state
+ *   END id                 ends the game and returns "OK id"
+ *   STATS                  returns "OK" followed by the number of sessions
+ *                          in memory, evictions, faults and spilled bytes
+ *
+ * A state is "OK id size score moved over" followed by the size * size tile
+ * values in row-major order, where moved (except after MOVES) and over are
+ * 1 or 0. Errors are
+ * returned as "ERR" and a message.
+ */
+public class GameServer {
+
+    /* The port served by default */
+    public static final int DEFAULT_PORT = 2048;
+
+    /* Largest board a client can ask for */
+    private static final int MAX_SIZE = 32;
+
+    /* Connections waiting to be accepted before new ones are refused */
+    private static final int BACKLOG = 4096;
+
+    // Settings, filled in by processArgs
+    private int port = DEFAULT_PORT;
+    private int capacity = 100000;
+    private String spillFile = null;
+
+    /* The games in progress */
+    private SessionStore sessions;
+
+    public static void main(String[] args) throws IOException {
+        GameServer server = new GameServer();
+        server.processArgs(args);
+        server.run();
+    }
+
+    /**
+     * Accepts connections until the process is stopped
+     */
+    private void run() throws IOException {
+        if (this.spillFile == null) {
+            File file = File.createTempFile("sessions", ".spill");
+            file.deleteOnExit();
+            this.spillFile = file.getPath();
+        }
+        this.sessions = new SessionStore(this.spillFile, this.capacity);
+        ExecutorService executor = newConnectionExecutor();
+        ServerSocket serverSocket = new ServerSocket(this.port, BACKLOG);
+        System.out.println("Serving games on port " + this.port
+                + (isVirtual(executor) ? " with virtual threads" : " with platform threads"));
+        while (true) {
+            Socket socket = serverSocket.accept();
+            executor.execute(() -> this.serve(socket));
+        }
+    }
+
+    /**
+     * Answers the requests of one connection until the client closes it
+     */
+    private void serve(Socket socket) {
+        StringBuilder response = new StringBuilder();
+        try (Socket connection = socket) {
+            connection.setTcpNoDelay(true);
+            BufferedReader reader = new BufferedReader(new InputStreamReader(
+                    connection.getInputStream(), "US-ASCII"));
+            Writer writer = new BufferedWriter(new OutputStreamWriter(
+                    connection.getOutputStream(), "US-ASCII"));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                response.setLength(0);
+                this.handle(line, response);
+                response.append('\n');
+                writer.append(response);
+                writer.flush();
+            }
+        }
+        catch (IOException e) {
+            //the client went away; its sessions stay available
+        }
+    }
+
+    /**
+     * Carries out one request
+     *
+     * @param request the request line
+     * @param response where the response line is written, without the newline
+     */
+    private void handle(String request, StringBuilder response) {
+        String[] words = request.trim().split(" +");
+        try {
+            switch (words[0]) {
+                case "NEW": {
+                    int size = words.length > 1 ? Integer.parseInt(words[1]) : 4;
+                    long seed = words.length > 2 ? Long.parseLong(words[2])
+                            : ThreadLocalRandom.current().nextLong();
+                    if (size < 2 || size > MAX_SIZE) {
+                        throw new IllegalArgumentException("Size must be from 2 to " + MAX_SIZE);
+                    }
+                    long id = this.sessions.create(size, seed);
+                    this.sessions.apply(id, board -> appendState(response, id, board, 0));
+                    break;
+                }
+                case "MOVE": {
+                    long id = sessionId(words, 3);
+                    Direction direction = Direction.fromString(words[2]);
+                    if (direction == null) {
+                        throw new IllegalArgumentException("Unknown direction " + words[2]);
+                    }
+                    this.sessions.apply(id, board -> {
+                        boolean moved = board.move(direction);
+                        if (moved) {
+                            board.addRandomTile();
+                        }
+                        return appendState(response, id, board, moved ? 1 : 0);
+                    });
+                    break;
+                }
+                case "MOVES": {
+                    long id = sessionId(words, 3);
+                    byte[] moves = Direction.parseMoves(words[2]);
+                    this.sessions.apply(id, board -> appendState(response, id, board,
+                            board.moveAll(moves, 0, moves.length, null, null, null)));
+                    break;
+                }
+                case "STATE": {
+                    long id = sessionId(words, 2);
+                    this.sessions.apply(id, board -> appendState(response, id, board, 0));
+                    break;
+                }
+                case "END": {
+                    long id = sessionId(words, 2);
+                    if (!this.sessions.remove(id)) {
+                        throw new IllegalArgumentException("No session " + id);
+                    }
+                    response.append("OK ").append(id);
+                    break;
+                }
+                case "STATS": {
+                    response.append("OK ").append(this.sessions.getLiveCount())
+                            .append(' ').append(this.sessions.getEvictions())
+                            .append(' ').append(this.sessions.getFaults())
+                            .append(' ').append(this.sessions.getSpillBytes());
+                    break;
+                }
+                default:
+                    throw new IllegalArgumentException("Unknown request " + words[0]);
+            }
+        }
+        catch (IllegalArgumentException e) {
+            //NumberFormatException included
+            response.setLength(0);
+            response.append("ERR ").append(e.getMessage());
+        }
+        catch (UncheckedIOException e) {
+            response.setLength(0);
+            response.append("ERR Session store failed: ").append(e.getCause().getMessage());
+        }
+    }
+
+    /**
+     * @return the session id of a request with the given number of words
+     */
+    private static long sessionId(String[] words, int length) {
+        if (words.length != length) {
+            throw new IllegalArgumentException("Expected " + (length - 1) + " arguments");
+        }
+        return Long.parseLong(words[1]);
+    }
+
+    /**
+     * Writes the state line of a session
+     *
+     * @return the response
+     */
+    private static StringBuilder appendState(StringBuilder response, long id, Board board,
+            int moved) {
+        response.append("OK ").append(id)
+                .append(' ').append(board.GRID_SIZE)
+                .append(' ').append(board.getScore())
+                .append(' ').append(moved)
+                .append(board.isGameOver() ? " 1" : " 0");
+        for (int row = 0; row < board.GRID_SIZE; row++) {
+            for (int column = 0; column < board.GRID_SIZE; column++) {
+                response.append(' ').append(board.getTileValue(row, column));
+            }
+        }
+        return response;
+    }
+
+    /**
+     * Creates an executor that runs every task on a new virtual thread if
+     * the JVM supports them, or on a cached pool of platform threads.
+     * Looked up by reflection so the code still compiles for Java 17.
+     *
+     * @return the executor
+     */
+    static ExecutorService newConnectionExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        }
+        catch (ReflectiveOperationException e) {
+            //no virtual threads, or only as a disabled preview
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    /**
+     * @return true if an executor came from newVirtualThreadPerTaskExecutor
+     */
+    static boolean isVirtual(ExecutorService executor) {
+        return !(executor instanceof ThreadPoolExecutor);
+    }
+
+    // The method used to process the command line arguments
+    private void processArgs(String[] args)
+    {
+        // Arguments must come in pairs
+        if((args.length % 2) != 0)
+        {
+            printUsage();
+            System.exit(-1);
+        }
+
+        try
+        {
+            for(int i = 0; i < args.length; i += 2)
+            {
+                if(args[i].equals("-p"))
+                    port = Integer.parseInt(args[i + 1]);
+                else if(args[i].equals("-c"))
+                    capacity = Integer.parseInt(args[i + 1]);
+                else if(args[i].equals("-f"))
+                    spillFile = args[i + 1];
+                else
+                {   // Incorrect Argument
+                    printUsage();
+                    System.exit(-1);
+                }
+            }
+        }
+        catch (NumberFormatException e)
+        {
+            printUsage();
+            System.exit(-1);
+        }
+
+        // The store needs room for at least one session per segment
+        if(capacity < 16)
+            capacity = 16;
+    }
+
+    // Print the Usage Message
+    private static void printUsage()
+    {
+        System.out.println("GameServer");
+        System.out.println("Usage:  GameServer [-p port] [-c sessions] [-f file]");
+        System.out.println();
+        System.out.println("  -p [port]     -> Port to serve games on, default " + DEFAULT_PORT);
+        System.out.println("  -c [sessions] -> Sessions kept in memory, default 100000");
+        System.out.println("  -f [file]     -> File idle sessions are spilled to, "
+                + "default a temporary file");
+    }
+}
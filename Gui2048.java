@@ -30,9 +30,17 @@ public class Gui2048 extends Application
     private Rectangle scoreSquare;
     private ArrayList<Rectangle> tileList = new ArrayList<Rectangle>();
     private ArrayList<Text> textList = new ArrayList<Text>();
+    private int[] displayedValues;  // The value each tile shows, -1 if none yet
+    private Font[] tileFonts;       // Tile fonts by log2 of the tile value
     private int[][] grid;
     private double tileSize = 100;
     private int gameOverCounter = 0; 
+    private StackPane gameOverPane;   // The "Game Over!" overlay, if shown
+    private ExpectimaxPlayer player;   // Chooses moves for the A key
+    private String journalFile;       // The filename of the game journal
+    private GameJournal.Recorder journalGame; // The moves of this game
+    private boolean useCanvas;        // Whether the board is drawn on a Canvas
+    private CanvasBoardView canvasView; // Draws the board in canvas mode
 
     @Override
     public void start(Stage primaryStage)
@@ -56,10 +64,14 @@ public class Gui2048 extends Application
 
         createScoreDisplay();
 
-        //save board to be able to read certain information
-        File file = trySaveForTemp("temporaryFile.board");
-        updateBoardInfo("temporaryFile.board");
-        file.delete();
+        //read the board's information and follow every later change
+        updateBoardInfo(board);
+        board.addObserver(changed -> updateBoardInfo(changed));
+        //undo would make the journal impossible to replay
+        if (journalGame == null) {
+            board.enableHistory(BoardHistory.capacityFor(board.GRID_SIZE,
+                    BoardHistory.DEFAULT_BUDGET_BYTES));
+        }
 
         scoreText.setFont(Font.font("Times New Roman", FontWeight.BOLD, 20));
         scoreText.setFill(Color.BLACK);
@@ -67,7 +79,14 @@ public class Gui2048 extends Application
         //adds the desired number of tiles to the stage and stores them in
         //ArrayLists so they may be updated later
         resizableGrid();
-        createTiles();
+        if ( useCanvas ) {
+           canvasView = new CanvasBoardView(board);
+           pane.add(canvasView.getCanvas(), 0, 1, this.boardSize, 1);
+           canvasView.start();
+        }
+        else {
+           createTiles();
+        }
         displayTiles();
         
         //add title and score to GridPane, placed on a StackPane
@@ -91,6 +110,21 @@ public class Gui2048 extends Application
 
     }
 
+    /* Tile and text colors and tile texts by log2 of the tile value, 0 for
+       an empty tile */
+    static final Color[] TILE_COLORS = new Color[32];
+    static final Color[] TEXT_COLORS = new Color[32];
+    static final String[] TILE_TEXTS = new String[32];
+
+    static {
+       for (int exponent = 0; exponent < 32; exponent++) {
+          int tileValue = exponent == 0 ? 0 : 1 << exponent;
+          TILE_COLORS[exponent] = decideColor(tileValue);
+          TEXT_COLORS[exponent] = (tileValue == 2 || tileValue == 4) ? Color.GRAY : Color.WHITE;
+          TILE_TEXTS[exponent] = tileValue == 0 ? "" : Integer.toUnsignedString(tileValue);
+       }
+    }
+
     /**
      * Creates the tiles that will be displayed on the GUI (the board squares)
      */
@@ -109,6 +143,38 @@ public class Gui2048 extends Application
               GridPane.setHalignment(tileText, HPos.CENTER);
            }
         }
+        this.displayedValues = new int[boardSize * boardSize];
+        Arrays.fill(this.displayedValues, -1);
+        this.tileFonts = createFonts(this.tileSize);
+    }
+
+    /**
+     * Creates the font of every tile value once. The size comes from the
+     * TEXT_SIZE tier of the value, scaled from TILE_WIDTH to the actual tile
+     * size, and shrinks further for values of more than four digits.
+     *
+     * @param tileSize the width of a tile
+     * @return the fonts by log2 of the tile value
+     */
+    static Font[] createFonts(double tileSize) {
+        Font[] tileFonts = new Font[32];
+        double scale = tileSize / Constants2048.TILE_WIDTH;
+        for (int exponent = 1; exponent < 32; exponent++) {
+           int textSize;
+           if ( exponent < 7 ) {
+              textSize = Constants2048.TEXT_SIZE_LOW;
+           }
+           else if ( exponent < 10 ) {
+              textSize = Constants2048.TEXT_SIZE_MID;
+           }
+           else {
+              textSize = Constants2048.TEXT_SIZE_HIGH;
+           }
+           int digits = TILE_TEXTS[exponent].length();
+           double size = textSize * scale * Math.min(1.0, 4.0 / digits);
+           tileFonts[exponent] = Font.font("Times New Roman", FontWeight.BOLD, size);
+        }
+        return tileFonts;
     }
 
     /**
@@ -152,89 +218,82 @@ public class Gui2048 extends Application
        }
     }
 
-    /**
-     * Saves the board temporarily.
-     *
-     * @param output the name of the file
-     *
-     * @return the file where the board is temporarily saved
-     */
-    private File trySaveForTemp(String output) {
-       try {
-          this.board.saveBoard(output);
-       }
-       catch (IOException e) {
-          System.out.println("Temp file not saved");
-       }
-       File file = new File(output);
-       return file;
-    }
-
     /**
      * Updates the board to current values. This method uses the arraylist
-     * fields to access the tiles and update them accordingly. 
+     * fields to access the tiles and update them accordingly. Only the
+     * tiles whose value changed since they were last drawn are touched, and
+     * their colors, fonts and texts come from the lookup tables.
      *
      */
     protected void displayTiles(){
+       if ( canvasView != null ) {
+          canvasView.update();
+          return;
+       }
        int counter = 0;
        //loop through the array to update each tile accordingly
        for (int row = 0; row < this.boardSize; row++) {
           for (int column = 0; column < this.boardSize; column++) {
              int tileValue = this.grid[row][column];
-             Color color = decideColor(tileValue);
-             tileList.get(counter).setFill(color);
-             //decides what to display as the value
-             if ( tileValue == 0 ) {
-                textList.get(counter).setText("");
-             }
-             else {
-                String tileValueString = String.valueOf(tileValue);
-                textList.get(counter).setText(tileValueString);
-                textList.get(counter).setFont(Font.font("Times New Roman", FontWeight.BOLD,15));
-             }
-             //decides color of tile's value 
-             if( tileValue == 2 || tileValue == 4 ) {
-                textList.get(counter).setFill(Color.GRAY);
+             if ( tileValue != this.displayedValues[counter] ) {
+                displayTile(counter, tileValue);
+                this.displayedValues[counter] = tileValue;
              }
-             else {
-                textList.get(counter).setFill(Color.WHITE);
-             } 
              counter++; 
           }
        }
     }
 
     /**
-     * updates the information of the baord after every move.
+     * Draws a single tile
      *
-     * @param inputBoard a file where the board is temporarily saved to retrieve
-     * the information
+     * @param index the index of the tile in tileList and textList
+     * @param tileValue the value to show
      */
-    protected void updateBoardInfo(String inputBoard){
-        Scanner input = null;
-        try {
-           //uses a Scanner object to read from the temporary file after every
-           //move and update the board's information
-           File file = new File(inputBoard);
-           input = new Scanner(file);
-        }
-        catch (Exception e) {
-            System.out.println("Update of the board failed!" + e.toString());
-        }
-        while ( input.hasNext() ) {
-            this.boardSize = input.nextInt();
-            this.score = input.nextInt();
-            scoreText.setText("Score: " + this.score);
+    private void displayTile(int index, int tileValue) {
+       Rectangle tile = tileList.get(index);
+       Text text = textList.get(index);
+       int exponent = Integer.numberOfTrailingZeros(tileValue);
+       if ( tileValue == 0 ) {
+          tile.setFill(TILE_COLORS[0]);
+          text.setText(TILE_TEXTS[0]);
+       }
+       else if ( tileValue == (1 << exponent) && exponent > 0 ) {
+          tile.setFill(TILE_COLORS[exponent]);
+          text.setText(TILE_TEXTS[exponent]);
+          text.setFont(this.tileFonts[exponent]);
+          text.setFill(TEXT_COLORS[exponent]);
+       }
+       else {
+          //not a power of two, only possible in a hand made board file
+          tile.setFill(Constants2048.COLOR_OTHER);
+          text.setText(String.valueOf(tileValue));
+          int highestBit = Math.max(1, 31 - Integer.numberOfLeadingZeros(tileValue));
+          text.setFont(this.tileFonts[highestBit]);
+          text.setFill(Color.WHITE);
+       }
+    }
+
+    /**
+     * updates the information of the baord after every change. Called by
+     * the board itself, so nothing has to be saved or parsed to follow it.
+     *
+     * @param changed the board to read the score and tiles from
+     */
+    protected void updateBoardInfo(Board changed){
+        this.boardSize = changed.GRID_SIZE;
+        this.score = changed.getScore();
+        scoreText.setText("Score: " + this.score);
+        if ( this.grid == null || this.grid.length != this.boardSize ) {
             this.grid = new int[boardSize][boardSize];
+        }
 
-            //use the file to populate a grid of the board
-            for (int row = 0; row < grid.length; row++) {
-                for( int column = 0; column < grid.length; column++){
-                    this.grid[row][column] = input.nextInt();
-                }
+        //copy the tiles into the grid used to draw the board
+        for (int row = 0; row < grid.length; row++) {
+            for( int column = 0; column < grid.length; column++){
+                this.grid[row][column] = changed.getTileValue(row, column);
             }
-      }
-
+        }
     }
 
     /**
@@ -252,10 +311,22 @@ public class Gui2048 extends Application
           pane.getChildren().add(text);
           pane.setAlignment(text, Pos.CENTER);
           stackPane.getChildren().add(pane);
+          gameOverPane = pane;
           gameOverCounter++;
        }
     }
 
+    /**
+     * removes the game over overlay, once a move has been undone
+     */
+    protected void clearGameOver() {
+       if ( gameOverPane != null ) {
+          stackPane.getChildren().remove(gameOverPane);
+          gameOverPane = null;
+          gameOverCounter = 0;
+       }
+    }
+
     /**
      * Decides the color of every tile.
      *
@@ -263,7 +334,7 @@ public class Gui2048 extends Application
      *
      * @return the color of the tile
      */
-    private static Color decideColor(int tileValue) {
+    static Color decideColor(int tileValue) {
        if (tileValue == 0) {
           return Constants2048.COLOR_EMPTY;
        }
@@ -311,24 +382,49 @@ public class Gui2048 extends Application
     private class BoardKeyHandler implements EventHandler<KeyEvent> {
 
        /**
-        * handles key events for arrow keys and S key.
+        * handles key events for arrow keys, A, U, R and S keys.
         *
         * @param e the key even being handled
         */
        @Override
        public void handle(KeyEvent e) {
           KeyCode code = e.getCode();
+          if ( canvasView != null ) {
+             //handled with the next frame, along with any other keys
+             //pressed before it
+             canvasView.submit(() -> handleKey(code));
+          }
+          else {
+             handleKey(code);
+          }
+       }
+
+       /**
+        * Carries out the action of a key
+        *
+        * @param code the key that was pressed
+        */
+       private void handleKey(KeyCode code) {
           if ( code == KeyCode.UP ) {
-             handleMove(board.UP);
+             handleMove(Direction.UP);
           }
           else if ( code == KeyCode.LEFT ) {
-             handleMove(board.LEFT);
+             handleMove(Direction.LEFT);
           }
           else if( code == KeyCode.DOWN ) {
-             handleMove(board.DOWN);
+             handleMove(Direction.DOWN);
           }
           else if ( code == KeyCode.RIGHT ) {
-             handleMove(board.RIGHT);
+             handleMove(Direction.RIGHT);
+          }
+          else if ( code == KeyCode.A ) {
+             handleAutoMove();
+          }
+          else if ( code == KeyCode.U ) {
+             handleHistory(board.undo(), "Undo");
+          }
+          else if ( code == KeyCode.R ) {
+             handleHistory(board.redo(), "Redo");
           }
           if ( board.isGameOver() ) {
              gameOver();
@@ -348,21 +444,81 @@ public class Gui2048 extends Application
 
         /**
          * Moves the board according to the specified direction
-         * @param String one of up, down, left, right directions to the move the board in
+         * @param direction one of up, down, left, right directions to the move the board in
          */
-       private void handleMove(String direction) {
+       private void handleMove(Direction direction) {
+           long start = BoardMetrics.ENABLED ? System.nanoTime() : 0;
            if (!board.canMove(direction)) {
                return;
            }
+           if (canvasView != null) {
+               canvasView.prepareMove(direction);
+           }
            board.move(direction);
+           if (journalGame != null) {
+               journalGame.record(direction);
+           }
            board.addRandomTile();
-           File file = trySaveForTemp("temporaryFile.board");
-           updateBoardInfo("temporaryFile.board");
-           file.delete();
            displayTiles();
+           if (BoardMetrics.ENABLED) {
+               BoardMetrics.INSTANCE.recordGuiUpdate(System.nanoTime() - start);
+           }
            System.out.println("Moving " + direction);
        }
 
+        /**
+         * Redraws the board after an undo or redo
+         * @param changed whether the board went back or forward
+         * @param action the name of the action, for the console
+         */
+       private void handleHistory(boolean changed, String action) {
+           if (!changed) {
+               System.out.println(action + " is not available");
+               return;
+           }
+           clearGameOver();
+           displayTiles();
+           System.out.println(action);
+       }
+
+        /**
+         * Plays the move chosen by the expectimax search
+         */
+       private void handleAutoMove() {
+           if (!ExpectimaxPlayer.supports(board)) {
+               System.out.println("Automatic moves need a 4x4 board");
+               return;
+           }
+           if (player == null) {
+               player = new ExpectimaxPlayer();
+           }
+           Direction direction = player.chooseMove(board);
+           if (direction != null) {
+               handleMove(direction);
+               System.out.println(player.getStatistics());
+           }
+       }
+
+    }
+
+    /**
+     * Appends the game to the journal when the window is closed
+     */
+    @Override
+    public void stop() {
+        if (journalGame == null) {
+            return;
+        }
+        try {
+            GameJournal.Writer writer = new GameJournal.Writer(journalFile);
+            writer.write(journalGame);
+            writer.close();
+            System.out.println("Game appended to journal " + journalFile);
+        }
+        catch (IOException e) {
+            System.out.println("The journal could not be written: " + e);
+        }
+        journalGame = null;
     }
 
     // The method used to process the command line arguments
@@ -391,11 +547,27 @@ public class Gui2048 extends Application
                 // the output file to be used to save the board
                 outputBoard = args[i + 1];
             }
+            else if(args[i].equals("-j"))
+            {   // We are processing the argument that specifies
+                // the journal the game is appended to
+                journalFile = args[i + 1];
+            }
             else if(args[i].equals("-s"))
             {   // We are processing the argument that specifies
                 // the size of the Board
                 boardSize = Integer.parseInt(args[i + 1]);
             }
+            else if(args[i].equals("-r"))
+            {   // We are processing the argument that specifies
+                // how the tiles are drawn
+                if(args[i + 1].equals("canvas"))
+                    useCanvas = true;
+                else if(!args[i + 1].equals("nodes"))
+                {
+                    printUsage();
+                    System.exit(-1);
+                }
+            }
             else
             {   // Incorrect Argument 
                 printUsage();
@@ -412,10 +584,19 @@ public class Gui2048 extends Application
 
         // Initialize the Game Board
         try{
-            if(inputBoard != null)
+            if(inputBoard != null && BoardArchive.isArchive(inputBoard))
+                board = BoardArchive.readBoard(new Random(), inputBoard);
+            else if(inputBoard != null)
                 board = new Board(new Random(), inputBoard);
             else
-                board = new Board(new Random(), boardSize);
+            {   // Seed the game so that the journal can replay it
+                long seed = new Random().nextLong();
+                board = new Board(new Random(seed), boardSize);
+                if(journalFile != null)
+                    journalGame = new GameJournal.Recorder(seed, boardSize);
+            }
+            if(journalFile != null && journalGame == null)
+                System.out.println("Only new games can be journaled");
         }
         catch (Exception e)
         {
@@ -451,5 +632,13 @@ public class Gui2048 extends Application
                            "are used, then the size of the board"); 
         System.out.println("                will be determined by the input" +
                            " file. The default size is 4.");
+        System.out.println("  -j [file]  -> Specifies a journal that the " +
+                           "seed and moves of a new game are");
+        System.out.println("                appended to when the window " +
+                           "is closed");
+        System.out.println("  -r [mode]  -> Draws the tiles as scene nodes " +
+                           "(\"nodes\", the default) or on a");
+        System.out.println("                single animated canvas " +
+                           "(\"canvas\"), which suits large boards");
     }
 }
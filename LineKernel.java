@@ -0,0 +1,145 @@
+/**
+ * Looks for possible moves along the rows of a board. A tile can move
+ * towards an edge if the cell next to it on that side is empty or holds the
+ * same value, so every check compares two runs of cells lane by lane: the
+ * cells nearer the edge and the cells one step further away. For LEFT and
+ * RIGHT both runs are in the same row, one cell apart; for UP and DOWN they
+ * are two neighbouring rows, which keeps the scan in memory order.
+ *
+ * This class does one cell at a time. When VectorLineKernel, from the
+ * separate vector source directory, is on the class path and the JVM runs
+ * with --add-modules jdk.incubator.vector, INSTANCE is a VectorLineKernel
+ * that compares as many cells at once as the CPU's widest vectors hold; the
+ * scalar code is used otherwise, or when started with
+ * -Dgame2048.vectorLines=false.
+ */
+public class LineKernel {
+
+    /* The kernel every Board uses */
+    public static final LineKernel INSTANCE = load();
+
+    LineKernel() {
+    }
+
+    /**
+     * @return a VectorLineKernel if the vector module is there and not
+     * turned off, otherwise a scalar kernel
+     */
+    private static LineKernel load() {
+        if (!Boolean.parseBoolean(System.getProperty("game2048.vectorLines", "true"))
+                || !ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+            return new LineKernel();
+        }
+        try {
+            //looked up by name so that this class compiles without the module
+            return (LineKernel) Class.forName("VectorLineKernel")
+                    .getDeclaredConstructor().newInstance();
+        }
+        catch (ReflectiveOperationException | LinkageError e) {
+            return new LineKernel();
+        }
+    }
+
+    /**
+     * @return a short name of the kernel, for reports
+     */
+    public String getName() {
+        return "scalar";
+    }
+
+    /**
+     * Checks whether any tile of a run can slide into or merge with its
+     * neighbour in the other run
+     *
+     * @param nearer the cells nearer the edge the tiles slide towards
+     * @param nearerOffset the index of the first cell in nearer
+     * @param farther the cells one step further from that edge
+     * @param fartherOffset the index of the first cell in farther
+     * @param count the number of cells to compare
+     * @return true if a tile of farther can move
+     */
+    public boolean canSlide(int[] nearer, int nearerOffset, int[] farther, int fartherOffset,
+                            int count) {
+        for (int index = 0; index < count; index++) {
+            int tileValue = farther[fartherOffset + index];
+            int next = nearer[nearerOffset + index];
+            if (tileValue != 0 && (next == 0 || next == tileValue)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Finds the directions in which a tile of a row can move: along the
+     * row for LEFT and RIGHT, and between the row and the one below it for
+     * UP and DOWN
+     *
+     * @param tiles the row
+     * @param below the row below it, or null for the last row
+     * @param size the length of the rows
+     * @return a mask with bit direction.ordinal() set for every direction
+     */
+    public int legalMoves(int[] tiles, int[] below, int size) {
+        return this.legalMovesFrom(tiles, below, 0, size, 0);
+    }
+
+    /**
+     * legalMoves for the cells of the row from a column on, adding to the
+     * directions already found
+     */
+    final int legalMovesFrom(int[] tiles, int[] below, int from, int size, int found) {
+        int all = below == null ? 3 : 15;
+        for (int column = from; column < size && found != all; column++) {
+            int tileValue = tiles[column];
+            if (column + 1 < size) {
+                int right = tiles[column + 1];
+                if (right != 0 && (tileValue == 0 || tileValue == right)) {
+                    found |= 1;
+                }
+                if (tileValue != 0 && (right == 0 || right == tileValue)) {
+                    found |= 2;
+                }
+            }
+            if (below != null) {
+                int under = below[column];
+                if (under != 0 && (tileValue == 0 || tileValue == under)) {
+                    found |= 4;
+                }
+                if (tileValue != 0 && (under == 0 || under == tileValue)) {
+                    found |= 8;
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Checks whether a row has an empty cell or a tile equal to its
+     * neighbour on the right or below, which means some move is possible
+     * unless the board has no tiles at all
+     *
+     * @param tiles the row
+     * @param below the row below it, or null for the last row
+     * @param size the length of the rows
+     * @return true if a move is possible
+     */
+    public boolean hasMove(int[] tiles, int[] below, int size) {
+        return this.hasMoveFrom(tiles, below, 0, size);
+    }
+
+    /**
+     * hasMove for the cells of the row from a column on
+     */
+    final boolean hasMoveFrom(int[] tiles, int[] below, int from, int size) {
+        for (int column = from; column < size; column++) {
+            int tileValue = tiles[column];
+            if (tileValue == 0
+                    || (column + 1 < size && tiles[column + 1] == tileValue)
+                    || (below != null && below[column] == tileValue)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
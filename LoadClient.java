@@ -0,0 +1,174 @@
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.io.*;
+import java.net.*;
+
+/**
+ * Load generator for GameServer. Opens many connections at once, each
+ * playing random moves in its own game and starting a new one when the game
+ * is over, and measures the round trip time of every move. Prints the move
+ * throughput and the latency percentiles at the end of the run.
+ */
+public class LoadClient {
+
+    // Settings, filled in by processArgs
+    private String host = "localhost";
+    private int port = GameServer.DEFAULT_PORT;
+    private int connections = 100;
+    private long durationMillis = 10000;
+    private int boardSize = 4;
+
+    // Results
+    private final LogHistogram latencies = new LogHistogram();
+    private final LongAdder games = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+
+    public static void main(String[] args) throws Exception {
+        LoadClient client = new LoadClient();
+        client.processArgs(args);
+        client.run();
+    }
+
+    /**
+     * Runs every connection until the time is up and prints the report
+     */
+    private void run() throws Exception {
+        ExecutorService executor = GameServer.newConnectionExecutor();
+        System.out.println("Playing on " + this.host + ":" + this.port + " with "
+                + this.connections + " connections for " + this.durationMillis + " ms"
+                + (GameServer.isVirtual(executor) ? " on virtual threads" : ""));
+        long start = System.nanoTime();
+        long deadline = start + this.durationMillis * 1000000L;
+        for (int connection = 0; connection < this.connections; connection++) {
+            executor.execute(() -> this.play(deadline));
+        }
+        executor.shutdown();
+        executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        long moves = this.latencies.getCount();
+        System.out.printf("%d moves in %.1f s, %.0f moves/s, %d games finished, %d errors%n",
+                moves, seconds, moves / seconds, this.games.sum(), this.errors.sum());
+        System.out.printf("Latency (us) mean %.1f  p50 %.1f  p90 %.1f  p99 %.1f  "
+                + "p99.9 %.1f  max %.1f%n",
+                this.latencies.getMean() / 1000,
+                this.latencies.getPercentile(50) / 1000.0,
+                this.latencies.getPercentile(90) / 1000.0,
+                this.latencies.getPercentile(99) / 1000.0,
+                this.latencies.getPercentile(99.9) / 1000.0,
+                this.latencies.getMax() / 1000.0);
+    }
+
+    /**
+     * Plays games over one connection until the deadline
+     */
+    private void play(long deadline) {
+        Random random = ThreadLocalRandom.current();
+        try (Socket socket = new Socket(this.host, this.port)) {
+            socket.setTcpNoDelay(true);
+            BufferedReader reader = new BufferedReader(new InputStreamReader(
+                    socket.getInputStream(), "US-ASCII"));
+            Writer writer = new BufferedWriter(new OutputStreamWriter(
+                    socket.getOutputStream(), "US-ASCII"));
+            String id = newGame(reader, writer);
+            while (System.nanoTime() < deadline) {
+                String request = "MOVE " + id + " " + Direction.fromOrdinal(random.nextInt(4));
+                long sent = System.nanoTime();
+                String[] state = request(reader, writer, request);
+                this.latencies.record(System.nanoTime() - sent);
+                if (state[5].equals("1")) {
+                    request(reader, writer, "END " + id);
+                    this.games.increment();
+                    id = newGame(reader, writer);
+                }
+            }
+            request(reader, writer, "END " + id);
+        }
+        catch (IOException e) {
+            this.errors.increment();
+            System.out.println("Connection failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Starts a game
+     *
+     * @return the session id
+     */
+    private String newGame(BufferedReader reader, Writer writer) throws IOException {
+        return request(reader, writer, "NEW " + this.boardSize)[1];
+    }
+
+    /**
+     * Sends a request and waits for its response
+     *
+     * @return the words of the response
+     */
+    private static String[] request(BufferedReader reader, Writer writer, String request)
+            throws IOException {
+        writer.write(request);
+        writer.write('\n');
+        writer.flush();
+        String response = reader.readLine();
+        if (response == null) {
+            throw new EOFException("Server closed the connection");
+        }
+        if (!response.startsWith("OK")) {
+            throw new IOException("Request \"" + request + "\" failed: " + response);
+        }
+        return response.split(" ");
+    }
+
+    // The method used to process the command line arguments
+    private void processArgs(String[] args)
+    {
+        // Arguments must come in pairs
+        if((args.length % 2) != 0)
+        {
+            printUsage();
+            System.exit(-1);
+        }
+
+        try
+        {
+            for(int i = 0; i < args.length; i += 2)
+            {
+                if(args[i].equals("-h"))
+                    host = args[i + 1];
+                else if(args[i].equals("-p"))
+                    port = Integer.parseInt(args[i + 1]);
+                else if(args[i].equals("-c"))
+                    connections = Integer.parseInt(args[i + 1]);
+                else if(args[i].equals("-d"))
+                    durationMillis = Long.parseLong(args[i + 1]);
+                else if(args[i].equals("-s"))
+                    boardSize = Integer.parseInt(args[i + 1]);
+                else
+                {   // Incorrect Argument
+                    printUsage();
+                    System.exit(-1);
+                }
+            }
+        }
+        catch (NumberFormatException e)
+        {
+            printUsage();
+            System.exit(-1);
+        }
+    }
+
+    // Print the Usage Message
+    private static void printUsage()
+    {
+        System.out.println("LoadClient");
+        System.out.println("Usage:  LoadClient [-h host] [-p port] [-c connections] "
+                + "[-d millis] [-s size]");
+        System.out.println();
+        System.out.println("  -h [host]        -> Server host, default localhost");
+        System.out.println("  -p [port]        -> Server port, default " + GameServer.DEFAULT_PORT);
+        System.out.println("  -c [connections] -> Number of concurrent players, default 100");
+        System.out.println("  -d [millis]      -> How long to play, default 10000");
+        System.out.println("  -s [size]        -> Size of the boards, default 4");
+    }
+}
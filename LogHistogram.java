@@ -0,0 +1,127 @@
+import java.util.concurrent.atomic.*;
+
+/**
+ * Histogram of non-negative long values with buckets of logarithmically
+ * growing width, in the style of HdrHistogram. Values below 2^SUB_BITS get a
+ * bucket each; above that every power of two is split into 2^SUB_BITS
+ * buckets, so any value is reported within 1% of its true size while the
+ * whole range of longs fits in a few thousand counters.
+ *
+ * Recording is lock free and can be done from any number of threads.
+ */
+public class LogHistogram {
+
+    /* log2 of the number of buckets per power of two */
+    private static final int SUB_BITS = 7;
+
+    /* Number of buckets per power of two */
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+
+    /* Number of buckets needed for every long value */
+    private static final int BUCKETS = (64 - SUB_BITS + 1) * SUB_COUNT;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder total = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Adds a value to the histogram
+     *
+     * @param value the value to record, negative values are recorded as 0
+     */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        this.counts.incrementAndGet(bucketOf(value));
+        this.total.increment();
+        this.sum.add(value);
+        long currentMax = this.max.get();
+        while (value > currentMax && !this.max.compareAndSet(currentMax, value)) {
+            currentMax = this.max.get();
+        }
+    }
+
+    /**
+     * @return the bucket holding a value
+     */
+    private static int bucketOf(long value) {
+        if (value < SUB_COUNT) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int shift = exponent - SUB_BITS;
+        //the top SUB_BITS + 1 bits of the value pick the bucket
+        return ((shift + 1) << SUB_BITS) + (int) ((value >>> shift) - SUB_COUNT);
+    }
+
+    /**
+     * @return the smallest value that falls into a bucket
+     */
+    private static long lowestValueOf(int bucket) {
+        if (bucket < SUB_COUNT) {
+            return bucket;
+        }
+        int shift = (bucket >>> SUB_BITS) - 1;
+        return ((long) (bucket & (SUB_COUNT - 1)) + SUB_COUNT) << shift;
+    }
+
+    /**
+     * @return the number of recorded values
+     */
+    public long getCount() {
+        return this.total.sum();
+    }
+
+    /**
+     * @return the largest recorded value, 0 if there is none
+     */
+    public long getMax() {
+        return this.max.get();
+    }
+
+    /**
+     * @return the mean of the recorded values, 0 if there are none
+     */
+    public double getMean() {
+        long count = this.total.sum();
+        return count == 0 ? 0 : (double) this.sum.sum() / count;
+    }
+
+    /**
+     * Finds the value below which a given percentage of the recorded values
+     * fall, to within the precision of the buckets.
+     *
+     * @param percentile a number between 0 and 100
+     * @return the lowest value of the bucket holding that percentile, 0 if
+     * nothing was recorded
+     */
+    public long getPercentile(double percentile) {
+        long count = this.total.sum();
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        long seen = 0;
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            seen += this.counts.get(bucket);
+            if (seen >= rank) {
+                return Math.min(lowestValueOf(bucket), this.max.get());
+            }
+        }
+        return this.max.get();
+    }
+
+    /**
+     * Clears the histogram. Values recorded while it runs may be lost.
+     */
+    public void reset() {
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            this.counts.set(bucket, 0);
+        }
+        this.total.reset();
+        this.sum.reset();
+        this.max.set(0);
+    }
+}
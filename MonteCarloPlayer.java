@@ -0,0 +1,144 @@
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Chooses moves by random playouts. For every legal direction the player
+ * makes that move, then plays random moves until the game is over, and picks
+ * the direction with the best mean final score. Playouts are split into
+ * batches that run on a ForkJoinPool, each batch with its own board copy and
+ * the random generator of the thread that runs it, so the player scales with
+ * the number of cores. Works for any board size.
+ */
+public class MonteCarloPlayer implements MoveSelector {
+
+    /* Default number of playouts per direction */
+    public static final int DEFAULT_PLAYOUTS = 1000;
+
+    /* Playouts per task; larger requests are split in half */
+    private static final int BATCH_SIZE = 32;
+
+    /* The pool the playouts run on */
+    private final ForkJoinPool pool;
+
+    /* Number of playouts per direction */
+    private final int playouts;
+
+    /**
+     * Creates a player that runs the default number of playouts on the
+     * common pool
+     */
+    public MonteCarloPlayer() {
+        this(DEFAULT_PLAYOUTS, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Creates a player
+     *
+     * @param playouts the number of playouts per direction
+     * @param pool the pool to run the playouts on
+     */
+    public MonteCarloPlayer(int playouts, ForkJoinPool pool) {
+        if (playouts < 1) {
+            throw new IllegalArgumentException("playouts must be positive: " + playouts);
+        }
+        this.playouts = playouts;
+        this.pool = pool;
+    }
+
+    /**
+     * Picks the direction with the best mean playout score. The board must
+     * not be changed while the playouts run.
+     *
+     * @param board the board to move on
+     * @return the direction to move in, or null if no move is possible
+     */
+    @Override
+    public Direction chooseMove(Board board) {
+        List<Direction> directions = new ArrayList<Direction>();
+        List<PlayoutTask> tasks = new ArrayList<PlayoutTask>();
+        for (Direction direction : Direction.values()) {
+            if (board.canMove(direction)) {
+                PlayoutTask task = new PlayoutTask(board, direction, this.playouts);
+                directions.add(direction);
+                tasks.add(task);
+                this.pool.execute(task);
+            }
+        }
+
+        Direction best = null;
+        long bestTotal = -1;
+        for (int index = 0; index < tasks.size(); index++) {
+            long total = tasks.get(index).join();
+            if (total > bestTotal) {
+                bestTotal = total;
+                best = directions.get(index);
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Plays random moves until the game is over
+     *
+     * @param board the board to play on
+     * @param random the generator that picks the moves
+     */
+    static void playRandomly(Board board, Random random) {
+        while (true) {
+            //try the directions in a random rotation until one moves
+            int first = random.nextInt(4);
+            boolean moved = false;
+            for (int offset = 0; offset < 4 && !moved; offset++) {
+                moved = board.move(Direction.fromOrdinal((first + offset) & 3));
+            }
+            if (!moved) {
+                return;
+            }
+            board.addRandomTile();
+        }
+    }
+
+    /**
+     * Runs a number of playouts that start with the same move and sums
+     * their final scores.
+     */
+    @SuppressWarnings("serial")
+    private static class PlayoutTask extends RecursiveTask<Long> {
+
+        private final Board root;
+        private final Direction direction;
+        private final int count;
+
+        PlayoutTask(Board root, Direction direction, int count) {
+            this.root = root;
+            this.direction = direction;
+            this.count = count;
+        }
+
+        @Override
+        protected Long compute() {
+            if (this.count > BATCH_SIZE) {
+                int half = this.count / 2;
+                PlayoutTask first = new PlayoutTask(this.root, this.direction, half);
+                PlayoutTask second = new PlayoutTask(this.root, this.direction,
+                        this.count - half);
+                first.fork();
+                return second.compute() + first.join();
+            }
+
+            Random random = ThreadLocalRandom.current();
+            Board board = new Board(this.root, random);
+            long total = 0;
+            for (int playout = 0; playout < this.count; playout++) {
+                if (playout > 0) {
+                    board.copyFrom(this.root);
+                }
+                board.move(this.direction);
+                board.addRandomTile();
+                playRandomly(board, random);
+                total += board.getScore();
+            }
+            return total;
+        }
+    }
+}
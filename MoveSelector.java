@@ -0,0 +1,15 @@
+/**
+ * Chooses the next move to play on a Board, so games can be played without
+ * a human at the keyboard.
+ */
+public interface MoveSelector {
+
+    /**
+     * Picks a move for the current state of a board. The board is left
+     * unchanged.
+     *
+     * @param board the board to move on
+     * @return the direction to move in, or null if no move is possible
+     */
+    Direction chooseMove(Board board);
+}
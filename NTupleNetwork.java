@@ -0,0 +1,263 @@
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+
+/**
+ * Evaluates 4x4 boards with an n-tuple network and plays the move with the
+ * best immediate score plus the value of the board it leaves behind. Each
+ * tuple is a fixed group of cells; the exponents in those cells index a
+ * table of weights and the value of a board is the sum of the weights it
+ * selects. Every tuple is also read in all eight rotations and reflections
+ * of the board, sharing one table, so the network learns the same thing from
+ * a position and its mirror images.
+ *
+ * The weights live in one float[] so that an NTupleTrainer can update them
+ * from many threads at once without locking. Lost updates from two threads
+ * writing the same weight are rare and hardly affect the learning.
+ *
+ * Weights are saved in a binary file: the four bytes "2NTN", a version byte,
+ * the number of tuples as an int, each tuple as its length in a byte and its
+ * cells (4 * row + column) in bytes, then every weight as a big-endian float.
+ * The file is memory-mapped when it is loaded.
+ */
+public class NTupleNetwork implements MoveSelector {
+
+    /* The first four bytes of a weights file, "2NTN" in ASCII */
+    public static final int MAGIC = 0x324E544E;
+
+    /* The current version of the format */
+    public static final byte VERSION = 1;
+
+    /* Rows and 2x2 squares of four cells, about 1 MB of weights */
+    public static final int[][] SMALL_TUPLES = {
+        {0, 1, 2, 3}, {4, 5, 6, 7}, {0, 1, 4, 5}, {1, 2, 5, 6}, {5, 6, 9, 10}
+    };
+
+    /* Two rows with part of the next one, about 256 MB of weights */
+    public static final int[][] LARGE_TUPLES = {
+        {0, 1, 2, 3, 4, 5}, {4, 5, 6, 7, 8, 9}, {0, 1, 2, 4, 5, 6}, {4, 5, 6, 8, 9, 10}
+    };
+
+    /* The cells of every tuple as given */
+    private final int[][] tuples;
+
+    /* Bit shifts of the cells of every symmetric variant of every tuple, one
+       variant after the other, and where each variant starts */
+    private final int[] shifts;
+    private final int[] variantStarts;
+
+    /* Offset of the table of each variant in weights */
+    private final int[] tableOffsets;
+
+    /* All the tables, one after the other */
+    private final float[] weights;
+
+    /**
+     * Creates a network with every weight at zero
+     *
+     * @param tuples the cells of every tuple, numbered 4 * row + column
+     */
+    public NTupleNetwork(int[][] tuples) {
+        this.tuples = new int[tuples.length][];
+        int variants = 8 * tuples.length;
+        int cellCount = 0;
+        long tableSize = 0;
+        for (int tuple = 0; tuple < tuples.length; tuple++) {
+            if (tuples[tuple].length < 1 || tuples[tuple].length > 7) {
+                throw new IllegalArgumentException("Tuples must have 1 to 7 cells");
+            }
+            for (int cell : tuples[tuple]) {
+                if (cell < 0 || cell > 15) {
+                    throw new IllegalArgumentException("Bad tuple cell " + cell);
+                }
+            }
+            this.tuples[tuple] = tuples[tuple].clone();
+            cellCount += 8 * tuples[tuple].length;
+            tableSize += 1L << (4 * tuples[tuple].length);
+        }
+        if (tableSize > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("Tuples need too many weights: " + tableSize);
+        }
+
+        this.shifts = new int[cellCount];
+        this.variantStarts = new int[variants + 1];
+        this.tableOffsets = new int[variants];
+        int cell = 0;
+        int offset = 0;
+        for (int tuple = 0; tuple < tuples.length; tuple++) {
+            for (Symmetry symmetry : Symmetry.values()) {
+                int variant = 8 * tuple + symmetry.ordinal();
+                this.variantStarts[variant] = cell;
+                this.tableOffsets[variant] = offset;
+                for (int original : tuples[tuple]) {
+                    int row = symmetry.targetRow(original / 4, original % 4, 4);
+                    int column = symmetry.targetColumn(original / 4, original % 4, 4);
+                    this.shifts[cell++] = 4 * (4 * row + column);
+                }
+            }
+            offset += 1 << (4 * tuples[tuple].length);
+        }
+        this.variantStarts[variants] = cell;
+        this.weights = new float[(int) tableSize];
+    }
+
+    /**
+     * Loads a network saved by save
+     *
+     * @param inputFile the name of the file
+     * @return the network
+     */
+    public static NTupleNetwork load(String inputFile) throws IOException {
+        FileChannel channel = new RandomAccessFile(inputFile, "r").getChannel();
+        try {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != MAGIC) {
+                throw new IOException(inputFile + " is not an n-tuple network");
+            }
+            byte version = buffer.get();
+            if (version != VERSION) {
+                throw new IOException(inputFile + " has unsupported version " + version);
+            }
+            int[][] tuples = new int[buffer.getInt()][];
+            for (int tuple = 0; tuple < tuples.length; tuple++) {
+                tuples[tuple] = new int[buffer.get()];
+                for (int cell = 0; cell < tuples[tuple].length; cell++) {
+                    tuples[tuple][cell] = buffer.get();
+                }
+            }
+            NTupleNetwork network = new NTupleNetwork(tuples);
+            if (buffer.remaining() != 4L * network.weights.length) {
+                throw new IOException(inputFile + " has the wrong number of weights");
+            }
+            buffer.asFloatBuffer().get(network.weights);
+            return network;
+        }
+        catch (BufferUnderflowException | IllegalArgumentException e) {
+            throw new IOException(inputFile + " is not a valid n-tuple network", e);
+        }
+        finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Writes the network to a file
+     *
+     * @param outputFile the name of the file, replaced if it exists
+     */
+    public void save(String outputFile) throws IOException {
+        DataOutputStream output = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(outputFile), 1 << 16));
+        try {
+            output.writeInt(MAGIC);
+            output.writeByte(VERSION);
+            output.writeInt(this.tuples.length);
+            for (int[] tuple : this.tuples) {
+                output.writeByte(tuple.length);
+                for (int cell : tuple) {
+                    output.writeByte(cell);
+                }
+            }
+            for (float weight : this.weights) {
+                output.writeFloat(weight);
+            }
+        }
+        finally {
+            output.close();
+        }
+    }
+
+    /**
+     * @return the number of table lookups in one evaluation
+     */
+    public int getLookups() {
+        return this.tableOffsets.length;
+    }
+
+    /**
+     * Sums the weights a packed board selects
+     *
+     * @param board the packed board
+     * @return the value of the board
+     */
+    public float evaluate(long board) {
+        float value = 0;
+        for (int variant = 0; variant < this.tableOffsets.length; variant++) {
+            value += this.weights[this.tableOffsets[variant] + this.index(board, variant)];
+        }
+        return value;
+    }
+
+    /**
+     * Adds the same amount to every weight a packed board selects. Safe to
+     * call from many threads at once, at the cost of an occasional lost
+     * update.
+     *
+     * @param board the packed board
+     * @param delta the amount to add to each weight
+     */
+    public void update(long board, float delta) {
+        for (int variant = 0; variant < this.tableOffsets.length; variant++) {
+            this.weights[this.tableOffsets[variant] + this.index(board, variant)] += delta;
+        }
+    }
+
+    /**
+     * @return the index into its table that a board gives a tuple variant
+     */
+    private int index(long board, int variant) {
+        int index = 0;
+        int end = this.variantStarts[variant + 1];
+        for (int cell = this.variantStarts[variant], shift = 0; cell < end; cell++, shift += 4) {
+            index |= ((int) (board >>> this.shifts[cell]) & 0xF) << shift;
+        }
+        return index;
+    }
+
+    /**
+     * @return true if the board can be evaluated, meaning it is 4x4 and fits
+     * in a BitBoard
+     */
+    public static boolean supports(Board board) {
+        return board.toBitBoard() != BitBoard.INVALID;
+    }
+
+    /**
+     * Picks the move with the best score plus value of the board after it
+     *
+     * @param board the board to move on, which must be supported
+     * @return the direction to move in, or null if no move is possible
+     */
+    @Override
+    public Direction chooseMove(Board board) {
+        long packed = board.toBitBoard();
+        if (packed == BitBoard.INVALID) {
+            throw new IllegalArgumentException("The n-tuple network needs a 4x4 board "
+                    + "with tiles up to " + (1 << BitBoard.MAX_PACKED_EXPONENT));
+        }
+        return this.chooseMove(packed);
+    }
+
+    /**
+     * Picks the move with the best score plus value of the board after it
+     *
+     * @param board the packed board
+     * @return the direction to move in, or null if no move is possible
+     */
+    public Direction chooseMove(long board) {
+        Direction best = null;
+        float bestValue = 0;
+        for (Direction direction : Direction.values()) {
+            long after = BitBoard.move(board, direction);
+            if (after == board) {
+                continue;
+            }
+            float value = BitBoard.score(board, direction) + this.evaluate(after);
+            if (best == null || value > bestValue) {
+                best = direction;
+                bestValue = value;
+            }
+        }
+        return best;
+    }
+}
@@ -0,0 +1,244 @@
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.io.*;
+
+/**
+ * Trains an NTupleNetwork by temporal difference learning on self-play
+ * games. Every thread plays its own games on Board, always taking the move
+ * the network currently rates best, and after each move pulls the value of
+ * the previous afterstate (the board right after a move, before the new
+ * tile) towards the reward and value of the next one. All threads update
+ * the same weights without locking.
+ *
+ * Progress, with the mean score and the share of games reaching 2048 since
+ * the last report, is printed every few seconds, and the weights are saved
+ * at the end of training.
+ */
+public class NTupleTrainer {
+
+    /* How often progress is printed, in milliseconds */
+    private static final long PROGRESS_MILLIS = 5000;
+
+    // Settings, filled in by processArgs
+    private long games = 100000;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private float learningRate = 0.1f;
+    private String tupleSet = "small";
+    private String inputFile = null;
+    private String outputFile = "weights.ntn";
+    private long seed = System.nanoTime();
+
+    /* The network being trained */
+    private NTupleNetwork network;
+
+    /* The learning rate divided over the weights of one evaluation */
+    private float alpha;
+
+    // Results since the last report
+    private final AtomicLong nextGame = new AtomicLong();
+    private final LongAdder finishedGames = new LongAdder();
+    private final LongAdder totalMoves = new LongAdder();
+    private final LongAdder intervalGames = new LongAdder();
+    private final LongAdder intervalScore = new LongAdder();
+    private final LongAdder intervalWins = new LongAdder();
+
+    public static void main(String[] args) throws Exception {
+        NTupleTrainer trainer = new NTupleTrainer();
+        trainer.processArgs(args);
+        trainer.run();
+    }
+
+    /**
+     * Trains for the requested number of games and saves the weights
+     */
+    private void run() throws Exception {
+        if (this.inputFile != null) {
+            this.network = NTupleNetwork.load(this.inputFile);
+        }
+        else {
+            this.network = new NTupleNetwork(this.tupleSet.equals("large")
+                    ? NTupleNetwork.LARGE_TUPLES : NTupleNetwork.SMALL_TUPLES);
+        }
+        this.alpha = this.learningRate / this.network.getLookups();
+
+        System.out.println("Training for " + this.games + " games on " + this.threads
+                + " threads, learning rate " + this.learningRate + ", seed " + this.seed);
+        long start = System.nanoTime();
+        ExecutorService executor = Executors.newFixedThreadPool(this.threads);
+        for (int thread = 0; thread < this.threads; thread++) {
+            Random random = new Random(this.seed + thread);
+            executor.execute(() -> this.playGames(random));
+        }
+        executor.shutdown();
+        while (!executor.awaitTermination(PROGRESS_MILLIS, TimeUnit.MILLISECONDS)) {
+            printProgress(start);
+        }
+        printProgress(start);
+
+        this.network.save(this.outputFile);
+        System.out.println("Saved weights to " + this.outputFile);
+    }
+
+    /**
+     * Plays and learns from games until all the games are done
+     */
+    private void playGames(Random random) {
+        while (this.nextGame.getAndIncrement() < this.games) {
+            Board board = new Board(random, 4);
+            int moves = this.playGame(board);
+            this.totalMoves.add(moves);
+            this.intervalScore.add(board.getScore());
+            this.intervalGames.increment();
+            this.finishedGames.increment();
+            long packed = board.toBitBoard();
+            if (packed == BitBoard.INVALID || maxExponent(packed) >= 11) {
+                this.intervalWins.increment();
+            }
+        }
+    }
+
+    /**
+     * Plays one game, learning after every move
+     *
+     * @return the number of moves played
+     */
+    private int playGame(Board board) {
+        NTupleNetwork network = this.network;
+        long previous = BitBoard.INVALID;
+        int moves = 0;
+        while (true) {
+            long state = board.toBitBoard();
+            if (state == BitBoard.INVALID) {
+                //a tile too large to pack; the game is as good as won
+                break;
+            }
+            Direction best = null;
+            long bestAfter = 0;
+            float bestValue = 0;
+            for (Direction direction : Direction.values()) {
+                long after = BitBoard.move(state, direction);
+                if (after == state) {
+                    continue;
+                }
+                float value = BitBoard.score(state, direction) + network.evaluate(after);
+                if (best == null || value > bestValue) {
+                    best = direction;
+                    bestAfter = after;
+                    bestValue = value;
+                }
+            }
+            if (best == null) {
+                break;
+            }
+            if (previous != BitBoard.INVALID) {
+                network.update(previous, this.alpha * (bestValue - network.evaluate(previous)));
+            }
+            board.move(best);
+            board.addRandomTile();
+            previous = bestAfter;
+            moves++;
+        }
+        if (previous != BitBoard.INVALID) {
+            //nothing more to gain after the last move
+            network.update(previous, -this.alpha * network.evaluate(previous));
+        }
+        return moves;
+    }
+
+    /**
+     * @return the largest exponent on a packed board
+     */
+    private static int maxExponent(long board) {
+        int largest = 0;
+        for (int cell = 0; cell < 16; cell++) {
+            largest = Math.max(largest, (int) (board >>> (4 * cell)) & 0xF);
+        }
+        return largest;
+    }
+
+    /**
+     * Prints the training rate and the results since the last report
+     */
+    private void printProgress(long start) {
+        double seconds = (System.nanoTime() - start) / 1e9;
+        long finished = this.finishedGames.sum();
+        long games = this.intervalGames.sumThenReset();
+        long score = this.intervalScore.sumThenReset();
+        long wins = this.intervalWins.sumThenReset();
+        System.out.printf("%d/%d games, %.1f s, %.0f games/s, %.0f moves/s, "
+                + "mean score %.0f, 2048 reached %.1f%%%n",
+                finished, this.games, seconds, finished / seconds,
+                this.totalMoves.sum() / seconds,
+                games == 0 ? 0.0 : (double) score / games,
+                games == 0 ? 0.0 : 100.0 * wins / games);
+    }
+
+    // The method used to process the command line arguments
+    private void processArgs(String[] args)
+    {
+        // Arguments must come in pairs
+        if((args.length % 2) != 0)
+        {
+            printUsage();
+            System.exit(-1);
+        }
+
+        try
+        {
+            for(int i = 0; i < args.length; i += 2)
+            {
+                if(args[i].equals("-n"))
+                    games = Long.parseLong(args[i + 1]);
+                else if(args[i].equals("-t"))
+                    threads = Integer.parseInt(args[i + 1]);
+                else if(args[i].equals("-a"))
+                    learningRate = Float.parseFloat(args[i + 1]);
+                else if(args[i].equals("-u"))
+                    tupleSet = args[i + 1];
+                else if(args[i].equals("-i"))
+                    inputFile = args[i + 1];
+                else if(args[i].equals("-o"))
+                    outputFile = args[i + 1];
+                else if(args[i].equals("-r"))
+                    seed = Long.parseLong(args[i + 1]);
+                else
+                {   // Incorrect Argument
+                    printUsage();
+                    System.exit(-1);
+                }
+            }
+        }
+        catch (NumberFormatException e)
+        {
+            printUsage();
+            System.exit(-1);
+        }
+
+        if(threads < 1)
+            threads = 1;
+        if(!tupleSet.equals("small") && !tupleSet.equals("large"))
+        {
+            printUsage();
+            System.exit(-1);
+        }
+    }
+
+    // Print the Usage Message
+    private static void printUsage()
+    {
+        System.out.println("NTupleTrainer");
+        System.out.println("Usage:  NTupleTrainer [-n games] [-t threads] [-a rate] "
+                + "[-u tuples] [-i file] [-o file] [-r seed]");
+        System.out.println();
+        System.out.println("  -n [games]   -> Number of games to train on, default 100000");
+        System.out.println("  -t [threads] -> Number of threads, default one per core");
+        System.out.println("  -a [rate]    -> Learning rate, default 0.1");
+        System.out.println("  -u [tuples]  -> small (4-tuples, 1 MB) or large "
+                + "(6-tuples, 256 MB), default small");
+        System.out.println("  -i [file]    -> Weights to continue training from");
+        System.out.println("  -o [file]    -> File the weights are saved to, "
+                + "default weights.ntn");
+        System.out.println("  -r [seed]    -> Base seed, thread i uses seed + i");
+    }
+}
@@ -0,0 +1,39 @@
+import java.util.*;
+
+/**
+ * Chooses a random legal move. Mostly useful as a baseline and for driving
+ * the engine in simulations.
+ */
+public class RandomPlayer implements MoveSelector {
+
+    /* The generator that picks the moves */
+    private final Random random;
+
+    /**
+     * Creates a player
+     *
+     * @param random the generator that picks the moves
+     */
+    public RandomPlayer(Random random) {
+        this.random = random;
+    }
+
+    /**
+     * Tries the directions in a random rotation and returns the first legal
+     * one.
+     *
+     * @param board the board to move on
+     * @return the direction to move in, or null if no move is possible
+     */
+    @Override
+    public Direction chooseMove(Board board) {
+        int first = this.random.nextInt(4);
+        for (int offset = 0; offset < 4; offset++) {
+            Direction direction = Direction.fromOrdinal((first + offset) & 3);
+            if (board.canMove(direction)) {
+                return direction;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,484 @@
+import java.util.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.*;
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+
+/**
+ * Keeps a bounded number of games in memory and spills the rest to a file,
+ * so a server can hold millions of mostly idle games with a fixed heap.
+ * Sessions are kept packed: log2 of every tile in a byte, the score and the
+ * state of the session's Random. An action on a session unpacks it into a
+ * Board that the segment reuses and packs it again afterwards. When there
+ * is no room for another session, the least recently used one is written to
+ * a record in the spill file and read back the next time it is used.
+ *
+ * A record holds the board size and score as ints, the state of the Random
+ * as a long, then the tiles. Because the whole state of the Random is kept,
+ * a game draws the same tiles from its seed whether or when it was spilled.
+ * The length of a record only depends on the board size, so a session that
+ * is spilled again overwrites its old record. Where its record is, is the
+ * only thing kept in memory for a spilled session. When a session ends its
+ * record goes on a free list and is reused for the next session of the same
+ * size that is spilled, so the heap and the file grow with the number of
+ * open sessions, not with the number of sessions ever created.
+ *
+ * Sessions are spread over segments by id, each with its own lock and its
+ * own share of the capacity, so sessions in different segments can be used
+ * at the same time. The spill file is read and written outside the lock; a
+ * session on its way to or from the file is marked as moving, and whoever
+ * needs it waits until it has arrived.
+ */
+public final class SessionStore implements Closeable {
+
+    /* Number of segments, a power of two */
+    private static final int SEGMENTS = 16;
+
+    /* Length of a record before the tiles */
+    private static final int RECORD_HEADER_LENGTH = 16;
+
+    /* The spill file and the end of the space used in it */
+    private final FileChannel channel;
+    private final AtomicLong fileEnd = new AtomicLong();
+
+    private final Segment[] segments = new Segment[SEGMENTS];
+    private final AtomicLong nextId = new AtomicLong(1);
+
+    /* Running totals */
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder faults = new LongAdder();
+
+    /**
+     * Where a session is kept in the spill file
+     */
+    private static final class Record {
+        final long offset;
+        final int length;
+
+        Record(long offset, int length) {
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    /**
+     * A game in packed form
+     */
+    private static final class Session {
+        final int size;
+        int score;
+        long randomState;
+        final byte[] exponents;
+
+        Session(int size) {
+            this.size = size;
+            this.exponents = new byte[size * size];
+        }
+    }
+
+    /**
+     * A session on its way to the spill file
+     */
+    private static final class Eviction {
+        final long id;
+        final Session session;
+        final Record record;
+
+        Eviction(long id, Session session, Record record) {
+            this.id = id;
+            this.session = session;
+            this.record = record;
+        }
+    }
+
+    /**
+     * Draws the same numbers as a java.util.Random with the same seed, but
+     * its whole state is one long that can be saved and restored. Only the
+     * Gaussian cache of Random is not part of it, and Board never uses it.
+     */
+    @SuppressWarnings("serial")
+    static final class SessionRandom extends Random {
+
+        /* The linear congruential generator of java.util.Random */
+        private static final long MULTIPLIER = 0x5DEECE66DL;
+        private static final long ADDEND = 0xBL;
+        private static final long MASK = (1L << 48) - 1;
+
+        private long state;
+
+        SessionRandom(long seed) {
+            super(seed);
+        }
+
+        @Override
+        public synchronized void setSeed(long seed) {
+            super.setSeed(seed);
+            this.state = (seed ^ MULTIPLIER) & MASK;
+        }
+
+        @Override
+        protected int next(int bits) {
+            this.state = (this.state * MULTIPLIER + ADDEND) & MASK;
+            return (int) (this.state >>> (48 - bits));
+        }
+
+        long getState() {
+            return this.state;
+        }
+
+        void setState(long state) {
+            this.state = state;
+        }
+    }
+
+    /**
+     * Opens a store
+     *
+     * @param spillFile the name of the file idle sessions are written to,
+     * replaced if it exists
+     * @param capacity the number of sessions kept in memory
+     */
+    public SessionStore(String spillFile, int capacity) throws IOException {
+        if (capacity < SEGMENTS) {
+            throw new IllegalArgumentException("capacity must be at least " + SEGMENTS
+                    + ": " + capacity);
+        }
+        this.channel = new RandomAccessFile(spillFile, "rw").getChannel();
+        this.channel.truncate(0);
+        for (int segment = 0; segment < SEGMENTS; segment++) {
+            this.segments[segment] = new Segment(capacity / SEGMENTS);
+        }
+    }
+
+    /**
+     * Starts a new game
+     *
+     * @param size the size of the board
+     * @param seed the seed of the game's Random
+     * @return the id of the session
+     */
+    public long create(int size, long seed) {
+        long id = this.nextId.getAndIncrement();
+        SessionRandom random = new SessionRandom(seed);
+        Session session = pack(new Board(random, size), random, new Session(size));
+        Segment segment = this.segmentOf(id);
+        Eviction eviction;
+        synchronized (segment) {
+            segment.live.put(id, session);
+            eviction = segment.evict();
+        }
+        this.spill(segment, eviction);
+        return id;
+    }
+
+    /**
+     * Runs an action on the board of a session, reading it back from the
+     * spill file if needed. Nothing else can use the session, or evict it,
+     * until the action returns. The board is only valid during the action.
+     *
+     * @param id the id of the session
+     * @param action what to do with the board
+     * @return the result of the action
+     * @throws IllegalArgumentException if there is no such session
+     * @throws UncheckedIOException if the spill file cannot be used
+     */
+    public <T> T apply(long id, Function<Board, T> action) {
+        Segment segment = this.segmentOf(id);
+        while (true) {
+            Record record;
+            synchronized (segment) {
+                Session session = segment.arrive(id);
+                if (session != null) {
+                    return segment.run(session, action);
+                }
+                record = segment.records.get(id);
+                if (record == null) {
+                    throw new IllegalArgumentException("No session " + id);
+                }
+                segment.moving.add(id);
+            }
+
+            Session session = null;
+            Eviction eviction;
+            try {
+                session = this.read(record);
+            }
+            finally {
+                synchronized (segment) {
+                    segment.moving.remove(id);
+                    eviction = null;
+                    if (session != null) {
+                        segment.live.put(id, session);
+                        eviction = segment.evict();
+                    }
+                    segment.notifyAll();
+                }
+            }
+            this.faults.increment();
+            this.spill(segment, eviction);
+            //run the action on the next pass, unless the session has been
+            //evicted again in the meantime
+        }
+    }
+
+    /**
+     * Ends a session. Its record in the spill file, if any, is freed for
+     * another session.
+     *
+     * @param id the id of the session
+     * @return false if there was no such session
+     */
+    public boolean remove(long id) {
+        Segment segment = this.segmentOf(id);
+        synchronized (segment) {
+            segment.arrive(id);
+            return segment.remove(id);
+        }
+    }
+
+    /**
+     * @return the number of sessions in memory
+     */
+    public int getLiveCount() {
+        int count = 0;
+        for (Segment segment : this.segments) {
+            synchronized (segment) {
+                count += segment.live.size();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return the number of sessions written to the spill file so far
+     */
+    public long getEvictions() {
+        return this.evictions.sum();
+    }
+
+    /**
+     * @return the number of sessions read back from the spill file so far
+     */
+    public long getFaults() {
+        return this.faults.sum();
+    }
+
+    /**
+     * @return the number of bytes used in the spill file
+     */
+    public long getSpillBytes() {
+        return this.fileEnd.get();
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.channel.close();
+    }
+
+    private Segment segmentOf(long id) {
+        return this.segments[(int) id & (SEGMENTS - 1)];
+    }
+
+    /**
+     * Writes an evicted session to its record, outside the segment's lock.
+     * If the write fails the session is put back among the live ones.
+     *
+     * @param eviction the session to write, or null if none was evicted
+     */
+    private void spill(Segment segment, Eviction eviction) {
+        if (eviction == null) {
+            return;
+        }
+        boolean written = false;
+        try {
+            Session session = eviction.session;
+            ByteBuffer buffer = ByteBuffer.allocate(eviction.record.length);
+            buffer.putInt(session.size).putInt(session.score)
+                    .putLong(session.randomState).put(session.exponents);
+            buffer.flip();
+            long offset = eviction.record.offset;
+            while (buffer.hasRemaining()) {
+                offset += this.channel.write(buffer, offset);
+            }
+            written = true;
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        finally {
+            synchronized (segment) {
+                segment.moving.remove(eviction.id);
+                if (!written) {
+                    segment.live.put(eviction.id, eviction.session);
+                }
+                segment.notifyAll();
+            }
+        }
+        this.evictions.increment();
+    }
+
+    /**
+     * Reads a session back from its record, outside the segment's lock
+     */
+    private Session read(Record record) {
+        ByteBuffer buffer = ByteBuffer.allocate(record.length);
+        try {
+            long offset = record.offset;
+            while (buffer.hasRemaining()) {
+                int read = this.channel.read(buffer, offset);
+                if (read < 0) {
+                    throw new EOFException("Spill file is truncated");
+                }
+                offset += read;
+            }
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        buffer.flip();
+        Session session = new Session(buffer.getInt());
+        session.score = buffer.getInt();
+        session.randomState = buffer.getLong();
+        buffer.get(session.exponents);
+        return session;
+    }
+
+    /**
+     * Packs a board and the state of its Random into a session
+     *
+     * @return the session
+     */
+    private static Session pack(Board board, SessionRandom random, Session session) {
+        board.getExponents(session.exponents, 0);
+        session.score = board.getScore();
+        session.randomState = random.getState();
+        return session;
+    }
+
+    /**
+     * One share of the sessions, guarded by its own monitor
+     */
+    private final class Segment {
+
+        /* Number of sessions kept in memory */
+        private final int capacity;
+
+        /* Live sessions, least recently used first */
+        private final LinkedHashMap<Long, Session> live;
+
+        /* Sessions being written to or read from the spill file */
+        private final HashSet<Long> moving = new HashSet<Long>();
+
+        /* The record of every open session that has been spilled, whether
+           it is live again or not */
+        private final HashMap<Long, Record> records = new HashMap<Long, Record>();
+
+        /* Offsets of the records of ended sessions, by record length */
+        private final HashMap<Integer, ArrayDeque<Long>> freeRecords =
+                new HashMap<Integer, ArrayDeque<Long>>();
+
+        /* The boards sessions are unpacked into, by size, all drawing from
+           the same Random */
+        private final HashMap<Integer, Board> boards = new HashMap<Integer, Board>();
+        private final SessionRandom random = new SessionRandom(0);
+
+        Segment(int capacity) {
+            this.capacity = capacity;
+            this.live = new LinkedHashMap<Long, Session>(capacity * 4 / 3 + 1, 0.75f, true);
+        }
+
+        /**
+         * Waits until a session is not moving to or from the spill file
+         *
+         * @return the session if it is live, null otherwise
+         */
+        Session arrive(long id) {
+            while (this.moving.contains(id)) {
+                try {
+                    this.wait();
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Interrupted waiting for session " + id);
+                }
+            }
+            return this.live.get(id);
+        }
+
+        /**
+         * Unpacks a session, runs an action on it and packs it again, even
+         * if the action throws
+         */
+        <T> T run(Session session, Function<Board, T> action) {
+            Board board = this.boards.get(session.size);
+            if (board == null) {
+                board = new Board(this.random, new int[session.size][session.size]);
+                this.boards.put(session.size, board);
+            }
+            this.random.setState(session.randomState);
+            board.setExponents(session.exponents, 0, session.score);
+            try {
+                return action.apply(board);
+            }
+            finally {
+                pack(board, this.random, session);
+            }
+        }
+
+        /**
+         * Takes the least recently used session out if the segment is over
+         * capacity and marks it as moving
+         *
+         * @return the session to write to the spill file, or null
+         */
+        Eviction evict() {
+            if (this.live.size() <= this.capacity) {
+                return null;
+            }
+            Iterator<Map.Entry<Long, Session>> eldest = this.live.entrySet().iterator();
+            Map.Entry<Long, Session> entry = eldest.next();
+            long id = entry.getKey();
+            Session session = entry.getValue();
+            eldest.remove();
+            Record record = this.records.get(id);
+            if (record == null) {
+                record = this.allocate(RECORD_HEADER_LENGTH + session.exponents.length);
+                this.records.put(id, record);
+            }
+            this.moving.add(id);
+            return new Eviction(id, session, record);
+        }
+
+        /**
+         * Ends a session and frees its record. The session must not be
+         * moving.
+         *
+         * @return false if there was no such session
+         */
+        boolean remove(long id) {
+            Record record = this.records.remove(id);
+            if (record != null) {
+                ArrayDeque<Long> free = this.freeRecords.get(record.length);
+                if (free == null) {
+                    free = new ArrayDeque<Long>();
+                    this.freeRecords.put(record.length, free);
+                }
+                free.push(record.offset);
+            }
+            return this.live.remove(id) != null || record != null;
+        }
+
+        /**
+         * @return a free record of the given length, at the end of the file
+         * if none has been freed
+         */
+        private Record allocate(int length) {
+            ArrayDeque<Long> free = this.freeRecords.get(length);
+            if (free != null && !free.isEmpty()) {
+                return new Record(free.pop(), length);
+            }
+            return new Record(SessionStore.this.fileEnd.getAndAdd(length), length);
+        }
+    }
+}
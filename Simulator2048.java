@@ -0,0 +1,319 @@
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.io.*;
+
+/**
+ * Plays many games of 2048 without a GUI and reports throughput and
+ * statistics about the results. Games are spread over a pool of threads,
+ * each game seeded from the base seed and its number so that a run can be
+ * repeated. Results are aggregated into histograms as games finish and can
+ * be streamed to a CSV file, so the memory used does not grow with the
+ * number of games.
+ */
+public class Simulator2048 {
+
+    /* How often progress is printed, in milliseconds */
+    private static final long PROGRESS_MILLIS = 5000;
+
+    // Settings, filled in by processArgs
+    private long games = 1000;
+    private int boardSize = 4;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private String strategy = "random";
+    private String outputFile = null;
+    private String journalFile = null;
+    private long seed = System.nanoTime();
+    private long budgetMillis = 10;
+    private int playouts = 100;
+    private String weightsFile = null;
+
+    /* The network of the ntuple strategy, shared by every game */
+    private NTupleNetwork network;
+
+    // Aggregated results
+    private final AtomicLong nextGame = new AtomicLong();
+    private final LongAdder finishedGames = new LongAdder();
+    private final LongAdder totalMoves = new LongAdder();
+    private final LongAdder outgrownGames = new LongAdder();
+    private final LogHistogram scores = new LogHistogram();
+    private final LogHistogram gameLengths = new LogHistogram();
+    private final AtomicLongArray maxTiles = new AtomicLongArray(32);
+    private PrintWriter output;
+    private GameJournal.Writer journal;
+
+    public static void main(String[] args) throws Exception {
+        Simulator2048 simulator = new Simulator2048();
+        simulator.processArgs(args);
+        simulator.run();
+    }
+
+    /**
+     * Plays all the games and prints the report
+     */
+    private void run() throws Exception {
+        if (this.outputFile != null) {
+            this.output = new PrintWriter(new BufferedWriter(new FileWriter(this.outputFile)));
+            this.output.println("game,seed,score,maxTile,moves");
+        }
+        if (this.journalFile != null) {
+            this.journal = new GameJournal.Writer(this.journalFile);
+        }
+        if (this.strategy.equals("ntuple")) {
+            this.network = NTupleNetwork.load(this.weightsFile);
+        }
+
+        System.out.println("Playing " + this.games + " games of size " + this.boardSize
+                + " with strategy " + this.strategy + " on " + this.threads
+                + " threads, seed " + this.seed);
+        long start = System.nanoTime();
+        ExecutorService executor = Executors.newFixedThreadPool(this.threads);
+        for (int thread = 0; thread < this.threads; thread++) {
+            executor.execute(this::playGames);
+        }
+        executor.shutdown();
+        while (!executor.awaitTermination(PROGRESS_MILLIS, TimeUnit.MILLISECONDS)) {
+            printThroughput(start);
+        }
+        long elapsed = System.nanoTime() - start;
+
+        if (this.output != null) {
+            this.output.close();
+        }
+        if (this.journal != null) {
+            this.journal.close();
+        }
+        printThroughput(start);
+        printReport(elapsed);
+    }
+
+    /**
+     * Takes game numbers from the shared counter and plays them until all
+     * the games are done
+     */
+    private void playGames() {
+        GameJournal.Recorder recorder = new GameJournal.Recorder(0, this.boardSize);
+        boolean packedOnly = this.strategy.equals("expectimax") || this.strategy.equals("ntuple");
+        //one selector per thread; only its generator changes from game to
+        //game, and expectimax clears its table at the start of every search
+        Random moveRandom = new Random();
+        MoveSelector selector = createSelector(moveRandom);
+        long game;
+        while ((game = this.nextGame.getAndIncrement()) < this.games) {
+            long gameSeed = this.seed + game;
+            Board board = new Board(new Random(gameSeed), this.boardSize);
+            moveRandom.setSeed(~gameSeed);
+            recorder.reset(gameSeed, this.boardSize);
+            int moves = 0;
+            Direction direction;
+            while (true) {
+                //the packed strategies cannot go on past a 32768 tile, so
+                //the game ends there as if it were lost
+                if (packedOnly && board.toBitBoard() == BitBoard.INVALID) {
+                    this.outgrownGames.increment();
+                    break;
+                }
+                if ((direction = selector.chooseMove(board)) == null) {
+                    break;
+                }
+                board.move(direction);
+                board.addRandomTile();
+                recorder.record(direction);
+                moves++;
+            }
+            recordGame(game, gameSeed, board, moves);
+            if (this.journal != null) {
+                try {
+                    this.journal.write(recorder);
+                }
+                catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        }
+    }
+
+    /**
+     * @param random the generator of the random strategy, reseeded for
+     * every game
+     * @return a move selector for the chosen strategy, used by one thread
+     * for all its games
+     */
+    private MoveSelector createSelector(Random random) {
+        if (this.strategy.equals("expectimax")) {
+            return new ExpectimaxPlayer(this.budgetMillis);
+        }
+        else if (this.strategy.equals("montecarlo")) {
+            return new MonteCarloPlayer(this.playouts, ForkJoinPool.commonPool());
+        }
+        else if (this.strategy.equals("ntuple")) {
+            return this.network;
+        }
+        return new RandomPlayer(random);
+    }
+
+    /**
+     * Adds a finished game to the statistics and the output file
+     */
+    private void recordGame(long game, long gameSeed, Board board, int moves) {
+        int maxTile = 0;
+        for (int row = 0; row < board.GRID_SIZE; row++) {
+            for (int column = 0; column < board.GRID_SIZE; column++) {
+                maxTile = Math.max(maxTile, board.getTileValue(row, column));
+            }
+        }
+        this.scores.record(board.getScore());
+        this.gameLengths.record(moves);
+        this.maxTiles.incrementAndGet(Integer.numberOfTrailingZeros(maxTile) & 31);
+        this.totalMoves.add(moves);
+        this.finishedGames.increment();
+        if (this.output != null) {
+            synchronized (this.output) {
+                this.output.println(game + "," + gameSeed + "," + board.getScore()
+                        + "," + maxTile + "," + moves);
+            }
+        }
+    }
+
+    /**
+     * Prints the number of games played so far and the rate they are played at
+     */
+    private void printThroughput(long start) {
+        double seconds = (System.nanoTime() - start) / 1e9;
+        long finished = this.finishedGames.sum();
+        System.out.printf("%d/%d games, %.1f s, %.1f games/s, %.0f moves/s%n",
+                finished, this.games, seconds, finished / seconds,
+                this.totalMoves.sum() / seconds);
+    }
+
+    /**
+     * Prints the score and game length distributions and the max tile histogram
+     */
+    private void printReport(long elapsedNanos) {
+        System.out.println();
+        printDistribution("Score", this.scores);
+        printDistribution("Moves", this.gameLengths);
+        System.out.println();
+        long outgrown = this.outgrownGames.sum();
+        if (outgrown > 0) {
+            System.out.println("Stopped " + outgrown + " games whose tiles outgrew the "
+                    + this.strategy + " strategy");
+        }
+        System.out.println("Max tile     Games   Share   At least");
+        long finished = this.finishedGames.sum();
+        long atLeast = finished;
+        for (int exponent = 1; exponent < 32; exponent++) {
+            long count = this.maxTiles.get(exponent);
+            if (count > 0) {
+                System.out.printf("%8d %9d %6.2f%% %8.2f%%%n", 1L << exponent, count,
+                        100.0 * count / finished, 100.0 * atLeast / finished);
+            }
+            atLeast -= count;
+        }
+    }
+
+    /**
+     * Prints the percentiles of a histogram on one line
+     */
+    private static void printDistribution(String name, LogHistogram histogram) {
+        System.out.printf("%-6s mean %.1f  p10 %d  p50 %d  p90 %d  p99 %d  max %d%n",
+                name, histogram.getMean(), histogram.getPercentile(10),
+                histogram.getPercentile(50), histogram.getPercentile(90),
+                histogram.getPercentile(99), histogram.getMax());
+    }
+
+    // The method used to process the command line arguments
+    private void processArgs(String[] args)
+    {
+        // Arguments must come in pairs
+        if((args.length % 2) != 0)
+        {
+            printUsage();
+            System.exit(-1);
+        }
+
+        try
+        {
+            for(int i = 0; i < args.length; i += 2)
+            {
+                if(args[i].equals("-n"))
+                    games = Long.parseLong(args[i + 1]);
+                else if(args[i].equals("-s"))
+                    boardSize = Integer.parseInt(args[i + 1]);
+                else if(args[i].equals("-t"))
+                    threads = Integer.parseInt(args[i + 1]);
+                else if(args[i].equals("-p"))
+                    strategy = args[i + 1];
+                else if(args[i].equals("-o"))
+                    outputFile = args[i + 1];
+                else if(args[i].equals("-j"))
+                    journalFile = args[i + 1];
+                else if(args[i].equals("-r"))
+                    seed = Long.parseLong(args[i + 1]);
+                else if(args[i].equals("-b"))
+                    budgetMillis = Long.parseLong(args[i + 1]);
+                else if(args[i].equals("-m"))
+                    playouts = Integer.parseInt(args[i + 1]);
+                else if(args[i].equals("-w"))
+                    weightsFile = args[i + 1];
+                else
+                {   // Incorrect Argument
+                    printUsage();
+                    System.exit(-1);
+                }
+            }
+        }
+        catch (NumberFormatException e)
+        {
+            printUsage();
+            System.exit(-1);
+        }
+
+        // Set the default Board size if less than 2, like Board does
+        if(boardSize < 2)
+            boardSize = 4;
+        if(threads < 1)
+            threads = 1;
+        if(!strategy.equals("random") && !strategy.equals("expectimax")
+                && !strategy.equals("montecarlo") && !strategy.equals("ntuple"))
+        {
+            printUsage();
+            System.exit(-1);
+        }
+        if((strategy.equals("expectimax") || strategy.equals("ntuple")) && boardSize != 4)
+        {
+            System.out.println("The " + strategy + " strategy only plays 4x4 boards");
+            System.exit(-1);
+        }
+        if(strategy.equals("ntuple") && weightsFile == null)
+        {
+            System.out.println("The ntuple strategy needs a weights file");
+            System.exit(-1);
+        }
+    }
+
+    // Print the Usage Message
+    private static void printUsage()
+    {
+        System.out.println("Simulator2048");
+        System.out.println("Usage:  Simulator2048 [-n games] [-s size] [-t threads] "
+                + "[-p strategy] [-o file] [-j file] [-r seed] [-b millis] [-m playouts] "
+                + "[-w file]");
+        System.out.println();
+        System.out.println("  -n [games]    -> Number of games to play, default 1000");
+        System.out.println("  -s [size]     -> Size of the boards, default 4");
+        System.out.println("  -t [threads]  -> Number of threads, default one per core");
+        System.out.println("  -p [strategy] -> random, expectimax, montecarlo or ntuple, "
+                + "default random");
+        System.out.println("  -o [file]     -> CSV file that every finished game is "
+                + "written to");
+        System.out.println("  -j [file]     -> Game journal that every finished game is "
+                + "appended to");
+        System.out.println("  -r [seed]     -> Base seed, game i uses seed + i");
+        System.out.println("  -b [millis]   -> Expectimax time budget per move, default 10");
+        System.out.println("  -m [playouts] -> Monte Carlo playouts per direction, "
+                + "default 100");
+        System.out.println("  -w [file]     -> Weights of the ntuple strategy, saved by "
+                + "NTupleTrainer");
+    }
+}
@@ -0,0 +1,211 @@
+/**
+ * The eight rotations and reflections of a square board. Sliding tiles is
+ * the same game under all of them: moving a board in some direction and then
+ * transforming it gives the same result as transforming it first and moving
+ * it in the mapped direction. Keying caches and training data by a canonical
+ * form, the smallest of the eight transformed boards, lets every position
+ * stand in for all of its mirror images.
+ *
+ * Every symmetry is described as an optional transpose followed by optional
+ * flips of the rows and of the columns. Cell (row, column) of a board of
+ * size n ends up at (targetRow, targetColumn) of the transformed board.
+ * ROTATE_90 turns the board clockwise.
+ */
+public enum Symmetry {
+    IDENTITY(false, false, false),
+    FLIP_ROWS(false, true, false),
+    FLIP_COLUMNS(false, false, true),
+    ROTATE_180(false, true, true),
+    TRANSPOSE(true, false, false),
+    ROTATE_270(true, true, false),
+    ROTATE_90(true, false, true),
+    ANTI_TRANSPOSE(true, true, true);
+
+    /* The symmetries indexed by ordinal; bit 0 of the ordinal is flipRows,
+       bit 1 flipColumns and bit 2 transpose */
+    private static final Symmetry[] VALUES = values();
+
+    /* True if rows and columns are swapped before flipping */
+    public final boolean transpose;
+
+    /* True if the order of the rows is reversed */
+    public final boolean flipRows;
+
+    /* True if the order of the columns is reversed */
+    public final boolean flipColumns;
+
+    Symmetry(boolean transpose, boolean flipRows, boolean flipColumns) {
+        this.transpose = transpose;
+        this.flipRows = flipRows;
+        this.flipColumns = flipColumns;
+    }
+
+    /**
+     * @return the symmetry that undoes this one
+     */
+    public Symmetry inverse() {
+        if (this.transpose && this.flipRows != this.flipColumns) {
+            return this == ROTATE_90 ? ROTATE_270 : ROTATE_90;
+        }
+        return this;
+    }
+
+    /**
+     * @return the row a cell is moved to on a board of the given size
+     */
+    public int targetRow(int row, int column, int size) {
+        int target = this.transpose ? column : row;
+        return this.flipRows ? size - 1 - target : target;
+    }
+
+    /**
+     * @return the column a cell is moved to on a board of the given size
+     */
+    public int targetColumn(int row, int column, int size) {
+        int target = this.transpose ? row : column;
+        return this.flipColumns ? size - 1 - target : target;
+    }
+
+    /**
+     * Maps a move on the original board to the move on the transformed
+     * board that has the same effect
+     *
+     * @param direction the direction on the original board
+     * @return the direction on the transformed board
+     */
+    public Direction map(Direction direction) {
+        boolean vertical = direction.vertical != this.transpose;
+        boolean reverse = direction.reverse != (vertical ? this.flipRows : this.flipColumns);
+        return Direction.fromOrdinal((vertical ? 2 : 0) + (reverse ? 1 : 0));
+    }
+
+    /**
+     * Maps a move on the transformed board back to the original board, for
+     * example a move chosen for the canonical form of a board
+     *
+     * @param direction the direction on the transformed board
+     * @return the direction on the original board
+     */
+    public Direction unmap(Direction direction) {
+        return this.inverse().map(direction);
+    }
+
+    /**
+     * Transforms a packed 4x4 board
+     *
+     * @param board the packed board
+     * @return the transformed board
+     */
+    public long apply(long board) {
+        if (this.transpose) {
+            board = BitBoard.transpose(board);
+        }
+        if (this.flipRows) {
+            board = BitBoard.flipRows(board);
+        }
+        if (this.flipColumns) {
+            board = BitBoard.flipColumns(board);
+        }
+        return board;
+    }
+
+    /**
+     * Transforms a grid of any size into a new grid
+     *
+     * @param grid the tile values
+     * @return the transformed tile values
+     */
+    public int[][] apply(int[][] grid) {
+        int size = grid.length;
+        int[][] result = new int[size][size];
+        for (int row = 0; row < size; row++) {
+            for (int column = 0; column < size; column++) {
+                result[this.targetRow(row, column, size)][this.targetColumn(row, column, size)]
+                        = grid[row][column];
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Finds the symmetry that takes a packed 4x4 board to its canonical
+     * form, the transformed board with the smallest unsigned value
+     *
+     * @param board the packed board
+     * @return the symmetry to apply
+     */
+    public static Symmetry canonical(long board) {
+        long transposed = BitBoard.transpose(board);
+        Symmetry best = IDENTITY;
+        long smallest = board;
+        for (int index = 1; index < 8; index++) {
+            long candidate = (index & 4) != 0 ? transposed : board;
+            if ((index & 1) != 0) {
+                candidate = BitBoard.flipRows(candidate);
+            }
+            if ((index & 2) != 0) {
+                candidate = BitBoard.flipColumns(candidate);
+            }
+            if (Long.compareUnsigned(candidate, smallest) < 0) {
+                smallest = candidate;
+                best = VALUES[index];
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Finds the symmetry that takes a board of any size to its canonical
+     * form. 4x4 boards that pack use the packed order; other boards use the
+     * row-major order of the tile values, comparing candidates only up to
+     * the first cell where they differ.
+     *
+     * @param board the board
+     * @return the symmetry to apply
+     */
+    public static Symmetry canonical(Board board) {
+        long packed = board.toBitBoard();
+        if (packed != BitBoard.INVALID) {
+            return canonical(packed);
+        }
+        Symmetry best = IDENTITY;
+        for (int index = 1; index < 8; index++) {
+            if (VALUES[index].compare(best, board) < 0) {
+                best = VALUES[index];
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Compares the board transformed by this symmetry with the board
+     * transformed by another, cell by cell in row-major order
+     */
+    private int compare(Symmetry other, Board board) {
+        int size = board.GRID_SIZE;
+        for (int row = 0; row < size; row++) {
+            for (int column = 0; column < size; column++) {
+                int difference = Integer.compare(this.tileAfter(board, row, column),
+                        other.tileAfter(board, row, column));
+                if (difference != 0) {
+                    return difference;
+                }
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * @return the tile at (row, column) of the transformed board
+     */
+    private int tileAfter(Board board, int row, int column) {
+        int size = board.GRID_SIZE;
+        if (this.flipRows) {
+            row = size - 1 - row;
+        }
+        if (this.flipColumns) {
+            column = size - 1 - column;
+        }
+        return this.transpose ? board.getTileValue(column, row) : board.getTileValue(row, column);
+    }
+}
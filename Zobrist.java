@@ -0,0 +1,32 @@
+/**
+ * Zobrist keys for board cells. The hash of a board is the XOR of the keys
+ * of all its tiles, so it can be updated in constant time whenever a single
+ * cell changes: XOR out the key of the old tile and XOR in the new one.
+ *
+ * Instead of a table of random numbers, which would have to cover every cell
+ * of the largest board, the key of a cell and tile value is derived by
+ * running them through the SplitMix64 finalizer. This gives the same well
+ * mixed 64 bit keys for any board size without any memory.
+ */
+public final class Zobrist {
+
+    private Zobrist() {
+    }
+
+    /**
+     * Returns the key of a tile in a cell
+     *
+     * @param cell the cell, numbered row * size + column
+     * @param tileValue the value of the tile
+     * @return the key, 0 for an empty cell
+     */
+    public static long key(int cell, int tileValue) {
+        if (tileValue == 0) {
+            return 0;
+        }
+        long z = ((long) cell << 32 | (tileValue & 0xFFFFFFFFL)) + 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -0,0 +1,103 @@
+import jdk.incubator.vector.*;
+
+/**
+ * A LineKernel that compares whole vectors of cells at once with the
+ * incubating Vector API, using the widest vectors the CPU has (8 ints with
+ * AVX2, 16 with AVX-512). The cells left over after the last full vector
+ * are done by the scalar code.
+ *
+ * This class needs the jdk.incubator.vector module, both to compile and to
+ * run, so it lives in its own source directory that a plain javac *.java of
+ * the game does not see. To opt in, compile it after the game into the same
+ * classes directory and add the module when running:
+ *
+ *   javac --add-modules jdk.incubator.vector -cp classes -d classes vector/VectorLineKernel.java
+ *   java --add-modules jdk.incubator.vector -cp classes Simulator2048 ...
+ *
+ * Both print a warning that an incubating module is in use. Nothing refers
+ * to this class by name except LineKernel.load.
+ */
+final class VectorLineKernel extends LineKernel {
+
+    private static final VectorSpecies<Integer> SPECIES = IntVector.SPECIES_PREFERRED;
+
+    VectorLineKernel() {
+    }
+
+    @Override
+    public String getName() {
+        return "vector" + SPECIES.length();
+    }
+
+    @Override
+    public boolean canSlide(int[] nearer, int nearerOffset, int[] farther, int fartherOffset,
+                            int count) {
+        int index = 0;
+        for (int bound = SPECIES.loopBound(count); index < bound; index += SPECIES.length()) {
+            IntVector next = IntVector.fromArray(SPECIES, nearer, nearerOffset + index);
+            IntVector tiles = IntVector.fromArray(SPECIES, farther, fartherOffset + index);
+            VectorMask<Integer> open = next.compare(VectorOperators.EQ, 0)
+                    .or(next.compare(VectorOperators.EQ, tiles));
+            if (tiles.compare(VectorOperators.NE, 0).and(open).anyTrue()) {
+                return true;
+            }
+        }
+        return super.canSlide(nearer, nearerOffset + index, farther, fartherOffset + index,
+                count - index);
+    }
+
+    @Override
+    public int legalMoves(int[] tiles, int[] below, int size) {
+        //the last cell has no right neighbour, so leave it to the scalar code
+        int found = 0;
+        int all = below == null ? 3 : 15;
+        int index = 0;
+        for (int bound = SPECIES.loopBound(size - 1); index < bound && found != all;
+                index += SPECIES.length()) {
+            IntVector row = IntVector.fromArray(SPECIES, tiles, index);
+            IntVector right = IntVector.fromArray(SPECIES, tiles, index + 1);
+            VectorMask<Integer> empty = row.compare(VectorOperators.EQ, 0);
+            VectorMask<Integer> full = empty.not();
+            VectorMask<Integer> rightEmpty = right.compare(VectorOperators.EQ, 0);
+            VectorMask<Integer> equal = row.compare(VectorOperators.EQ, right);
+            if (rightEmpty.not().and(empty.or(equal)).anyTrue()) {
+                found |= 1;
+            }
+            if (full.and(rightEmpty.or(equal)).anyTrue()) {
+                found |= 2;
+            }
+            if (below != null) {
+                IntVector under = IntVector.fromArray(SPECIES, below, index);
+                VectorMask<Integer> underEmpty = under.compare(VectorOperators.EQ, 0);
+                VectorMask<Integer> same = row.compare(VectorOperators.EQ, under);
+                if (underEmpty.not().and(empty.or(same)).anyTrue()) {
+                    found |= 4;
+                }
+                if (full.and(underEmpty.or(same)).anyTrue()) {
+                    found |= 8;
+                }
+            }
+        }
+        return this.legalMovesFrom(tiles, below, index, size, found);
+    }
+
+    @Override
+    public boolean hasMove(int[] tiles, int[] below, int size) {
+        //the last cell has no right neighbour, so leave it to the scalar code
+        int index = 0;
+        for (int bound = SPECIES.loopBound(size - 1); index < bound; index += SPECIES.length()) {
+            IntVector row = IntVector.fromArray(SPECIES, tiles, index);
+            IntVector right = IntVector.fromArray(SPECIES, tiles, index + 1);
+            VectorMask<Integer> moves = row.compare(VectorOperators.EQ, 0)
+                    .or(row.compare(VectorOperators.EQ, right));
+            if (below != null) {
+                moves = moves.or(row.compare(VectorOperators.EQ,
+                        IntVector.fromArray(SPECIES, below, index)));
+            }
+            if (moves.anyTrue()) {
+                return true;
+            }
+        }
+        return this.hasMoveFrom(tiles, below, index, size);
+    }
+}